@@ -0,0 +1,68 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import src.User;
+import src.UserGraph;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks building graphs: adding students to teachers of a given fan-out, and generating whole graphs of each
+ * shape (which is dominated by User.addStudent and the UserGraph constructor).
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx12g"})
+public class ConstructionBenchmark {
+    // Students added per call of addStudents, a multiple of every fanOut, so the per-call setup is amortized
+    private static final int STUDENTS_PER_CALL = 50000;
+
+    @State(Scope.Benchmark)
+    public static class Students {
+        @Param({"1", "100", "50000"})
+        public int fanOut;
+
+        private User[] students;
+
+        // Fresh students for every call, since adding a student also adds the teacher to the student's teachers.
+        // Reusing them would give each one a growing list of teachers, one per earlier call.
+        @Setup(Level.Invocation)
+        public void setUp() {
+            students = new User[STUDENTS_PER_CALL];
+            for (int i = 0; i < STUDENTS_PER_CALL; i++)
+                students[i] = new User(i);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Graph {
+        @Param({"1000", "10000", "100000", "1000000", "10000000"})
+        public int numUsers;
+
+        @Param({"TINY_COMPONENTS", "GIANT_COMPONENT", "POWER_LAW"})
+        public GraphShape shape;
+    }
+
+    /**
+     * Adds STUDENTS_PER_CALL students, fanOut at a time to a new teacher. Scores are per student added.
+     */
+    @Benchmark
+    @OperationsPerInvocation(STUDENTS_PER_CALL)
+    public User addStudents(Students state) {
+        User teacher = null;
+        User[] students = state.students;
+        for (int i = 0; i < students.length; i++) {
+            if (i % state.fanOut == 0)
+                teacher = new User(-1 - i);
+            teacher.addStudent(students[i]);
+        }
+        return teacher;
+    }
+
+    @Benchmark
+    public UserGraph buildGraph(Graph state) {
+        return new UserGraph(state.shape.generate(state.numUsers, 42));
+    }
+}
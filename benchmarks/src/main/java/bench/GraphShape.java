@@ -0,0 +1,78 @@
+package bench;
+
+import src.User;
+
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * The graph shapes the benchmarks run on. Every shape is generated from a fixed seed, so runs are comparable.
+ */
+public enum GraphShape {
+    /**
+     * Lots of small classes of 2-6 users (one teacher each), none of them connected to each other.
+     */
+    TINY_COMPONENTS {
+        void addEdges(User[] users, Random random) {
+            int i = 0;
+            while (i < users.length) {
+                int classSize = Math.min(2 + random.nextInt(5), users.length - i);
+                for (int k = 1; k < classSize; k++)
+                    users[i].addStudent(users[i + k]);
+                i += classSize;
+            }
+        }
+    },
+    /**
+     * A single component spanning every user: a random recursive tree plus numUsers / 2 random extra edges.
+     */
+    GIANT_COMPONENT {
+        void addEdges(User[] users, Random random) {
+            for (int i = 1; i < users.length; i++)
+                users[random.nextInt(i)].addStudent(users[i]);
+            for (int k = 0; k < users.length / 2; k++)
+                users[random.nextInt(users.length)].addStudent(users[random.nextInt(users.length)]);
+        }
+    },
+    /**
+     * 5% of users are teachers whose class sizes follow a power law (Pareto, alpha = 1.5), picking their
+     * students uniformly from everyone else. A few huge teachers, many tiny ones, and a long tail of
+     * students without a teacher.
+     */
+    POWER_LAW {
+        void addEdges(User[] users, Random random) {
+            int numTeachers = Math.max(1, users.length / 20);
+            int numStudents = users.length - numTeachers;
+            if (numStudents <= 0)
+                return;
+            for (int t = 0; t < numTeachers; t++) {
+                double pareto = 1 / Math.pow(1 - random.nextDouble(), 1 / 1.5);
+                int classSize = (int) Math.min(pareto, Math.min(50000, numStudents));
+                for (int k = 0; k < classSize; k++)
+                    users[t].addStudent(users[numTeachers + random.nextInt(numStudents)]);
+            }
+        }
+    };
+
+    /**
+     * Adds the edges of this shape between the passed-in users.
+     */
+    abstract void addEdges(User[] users, Random random);
+
+    /**
+     * Generates a graph of this shape.
+     * @param numUsers the number of users
+     * @param seed     the seed for the random number generator
+     * @return         a map from userIds (0..numUsers-1) to users, ready to be passed to UserGraph
+     */
+    public HashMap<Integer, User> generate(int numUsers, long seed) {
+        User[] users = new User[numUsers];
+        HashMap<Integer, User> userMap = new HashMap<Integer, User>(numUsers * 4 / 3 + 1);
+        for (int i = 0; i < numUsers; i++) {
+            users[i] = new User(i);
+            userMap.put(i, users[i]);
+        }
+        addEdges(users, new Random(seed));
+        return userMap;
+    }
+}
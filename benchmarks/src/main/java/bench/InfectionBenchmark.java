@@ -0,0 +1,94 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import src.GraphSnapshot;
+import src.InfectionPlan;
+import src.UserGraph;
+import src.UserTree;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the infection strategies and component discovery of UserGraph across graph shapes and sizes.
+ * Reports both throughput and sampled latency (with percentiles) for every operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx12g"})
+public class InfectionBenchmark {
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int numUsers;
+
+    @Param({"TINY_COMPONENTS", "GIANT_COMPONENT", "POWER_LAW"})
+    public GraphShape shape;
+
+    private UserGraph graph;
+    private GraphSnapshot snapshot;
+    private int nextUser = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        graph = new UserGraph(shape.generate(numUsers, 42));
+        // Measure the planners themselves; cached lookups are measured by PlanCacheBenchmark
+        graph.getPlanCache().setCapacity(0);
+        snapshot = graph.snapshot();
+    }
+
+    /**
+     * @return a different userId for every call, spread over the whole graph
+     */
+    private int nextUserId() {
+        nextUser = (nextUser + 7919) % numUsers;
+        return nextUser;
+    }
+
+    @Benchmark
+    public boolean limitedInfection() {
+        return graph.limitedInfection(nextUserId(), 1, 100);
+    }
+
+    @Benchmark
+    public boolean limitedInfectionSmart() {
+        return graph.limitedInfectionSmart(2, numUsers / 100);
+    }
+
+    @Benchmark
+    public boolean limitedInfectionRecursive() {
+        return graph.limitedInfectionRecursive(3, numUsers / 100);
+    }
+
+    @Benchmark
+    public InfectionPlan planLimitedInfection() {
+        return graph.planLimitedInfection(numUsers / 100);
+    }
+
+    @Benchmark
+    public InfectionPlan planLimitedInfectionSmart() {
+        return graph.planLimitedInfectionSmart(numUsers / 100);
+    }
+
+    @Benchmark
+    public boolean totalInfection() {
+        return graph.totalInfection(nextUserId(), 4);
+    }
+
+    @Benchmark
+    public GraphSnapshot snapshot() {
+        return graph.snapshot();
+    }
+
+    @Benchmark
+    public ArrayList<UserTree> getTreesFromSnapshot() {
+        return graph.getTrees(snapshot);
+    }
+
+    @Benchmark
+    public ArrayList<UserTree> getTreesFromSnapshotParallel() {
+        return graph.getTrees(snapshot, ForkJoinPool.commonPool());
+    }
+}
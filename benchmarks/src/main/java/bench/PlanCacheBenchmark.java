@@ -0,0 +1,42 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import src.InfectionPlan;
+import src.UserGraph;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks planning on an unchanged graph with the plan cache on, where every call after the first is a lookup
+ * in UserGraph's PlanCache. Compare with the uncached planners in InfectionBenchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx12g"})
+public class PlanCacheBenchmark {
+    @Param({"1000", "100000", "10000000"})
+    public int numUsers;
+
+    @Param({"TINY_COMPONENTS", "POWER_LAW"})
+    public GraphShape shape;
+
+    private UserGraph graph;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        graph = new UserGraph(shape.generate(numUsers, 42));
+    }
+
+    @Benchmark
+    public InfectionPlan planLimitedInfectionCached() {
+        return graph.planLimitedInfection(numUsers / 100);
+    }
+
+    @Benchmark
+    public InfectionPlan planLimitedInfectionSmartCached() {
+        return graph.planLimitedInfectionSmart(numUsers / 100);
+    }
+}
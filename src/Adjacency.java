@@ -0,0 +1,195 @@
+package src;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A compact, read-only collection of the students or teachers of a user (changed only through User).
+ * Users are kept in a plain array that starts at exactly one slot and grows by half, since most users only
+ * have a handful of neighbors. Checking for duplicates scans the array while it is small; once it holds more
+ * than HASH_THRESHOLD users, an open-addressing table of positions (hashed on userId) is added on top, so
+ * checks stay O(1) for teachers with thousands of students.
+ */
+class Adjacency extends AbstractCollection<User> {
+    static final int HASH_THRESHOLD = 16;
+
+    private User[] users;
+    private int size;
+    // table[slot] holds (position in users) + 1 for the user hashed to slot, or 0 if the slot is empty
+    private int[] table;
+
+    /**
+     * Makes an empty Adjacency. Nothing is allocated until the first user is added.
+     */
+    Adjacency() {
+
+    }
+
+    /**
+     * Makes an empty Adjacency with room for exactly capacity users.
+     * @param capacity the number of users to make room for
+     */
+    Adjacency(int capacity) {
+        if (capacity > 0)
+            users = new User[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(Object o) {
+        return o instanceof User && containsId(((User) o).getId());
+    }
+
+    public Iterator<User> iterator() {
+        return new Iterator<User>() {
+            private int next = 0;
+
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            public User next() {
+                if (next >= size)
+                    throw new NoSuchElementException();
+                return users[next++];
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * @param id a userId
+     * @return   true if a user with that id is in the collection, false otherwise
+     */
+    boolean containsId(int id) {
+        if (table != null)
+            return table[findSlot(id)] != 0;
+        for (int i = 0; i < size; i++) {
+            if (users[i].getId() == id)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds a user, unless a user with the same id is already in the collection.
+     * @param u the user to add
+     * @return  true if the user was added, false if it was a duplicate
+     */
+    boolean append(User u) {
+        if (containsId(u.getId()))
+            return false;
+        appendUnchecked(u);
+        return true;
+    }
+
+    /**
+     * Adds a user without checking for duplicates. Only for callers that already know it isn't one.
+     * @param u the user to add
+     */
+    void appendUnchecked(User u) {
+        if (users == null)
+            users = new User[1];
+        else if (size == users.length)
+            users = Arrays.copyOf(users, size + Math.max(1, size >> 1));
+        users[size++] = u;
+        if (table != null) {
+            if (size * 2 > table.length)
+                rehash(table.length * 2);
+            else
+                table[findSlot(u.getId())] = size;
+        } else if (size > HASH_THRESHOLD) {
+            rehash(Integer.highestOneBit(size) * 4);
+        }
+    }
+
+    /**
+     * Removes the user with the passed-in id, moving the last user into its place.
+     * @param id a userId
+     * @return   true if a user with that id was removed, false if there was none
+     */
+    boolean removeId(int id) {
+        int pos;
+        if (table != null) {
+            int slot = findSlot(id);
+            if (table[slot] == 0)
+                return false;
+            pos = table[slot] - 1;
+            deleteSlot(slot);
+        } else {
+            pos = -1;
+            for (int i = 0; i < size && pos < 0; i++) {
+                if (users[i].getId() == id)
+                    pos = i;
+            }
+            if (pos < 0)
+                return false;
+        }
+        int last = size - 1;
+        if (pos != last) {
+            users[pos] = users[last];
+            if (table != null)
+                table[findSlot(users[pos].getId())] = pos + 1;
+        }
+        users[last] = null;
+        size--;
+        return true;
+    }
+
+    /**
+     * Empties a slot of the hash table, shifting later entries of the same probe run back so that lookups
+     * never stop early at the hole (backward-shift deletion, which needs no tombstones).
+     */
+    private void deleteSlot(int hole) {
+        int mask = table.length - 1;
+        int slot = hole;
+        while (true) {
+            slot = (slot + 1) & mask;
+            if (table[slot] == 0)
+                break;
+            int home = mix(users[table[slot] - 1].getId()) & mask;
+            // The entry can move back to the hole unless its home slot lies cyclically in (hole, slot]
+            boolean stays = hole <= slot ? hole < home && home <= slot : hole < home || home <= slot;
+            if (!stays) {
+                table[hole] = table[slot];
+                hole = slot;
+            }
+        }
+        table[hole] = 0;
+    }
+
+    /**
+     * Rebuilds the hash table with the given (power of two) capacity.
+     */
+    private void rehash(int capacity) {
+        table = new int[capacity];
+        for (int i = 0; i < size; i++)
+            table[findSlot(users[i].getId())] = i + 1;
+    }
+
+    /**
+     * @return the slot holding the user with the passed-in id, or the empty slot where it would go
+     */
+    private int findSlot(int id) {
+        int mask = table.length - 1;
+        int slot = mix(id) & mask;
+        while (table[slot] != 0 && users[table[slot] - 1].getId() != id)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    /**
+     * Spreads the bits of a userId, so that runs of consecutive ids don't cluster in the table.
+     */
+    private static int mix(int id) {
+        int h = id * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
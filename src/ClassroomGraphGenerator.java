@@ -0,0 +1,447 @@
+package src;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Generates synthetic teacher/student graphs that look like a real classroom graph, for load testing.
+ *
+ * Students are grouped into schools whose sizes follow a power law (Pareto), so there are many small schools and
+ * a few huge ones. Every student takes a number of classes, and the seats of a school are shuffled and cut into
+ * classes whose sizes follow a power law as well. Each class is taught by one of the school's teachers, so
+ * students end up with several teachers and teachers with several overlapping classes. With a small probability
+ * a school shares a teacher with the school before it, which chains schools together into a few giant
+ * components. Edges go from teacher to student, and the graph has about numStudents times the mean number of
+ * classes per student edges.
+ *
+ * The output only depends on the seed and the settings, not on the number of threads: the school sizes are
+ * drawn up front, every school gets its own SplittableRandom, and the schools are then generated in parallel.
+ * Users get consecutive userIds by school (students first, then teachers). Users without any edge (e.g. a
+ * teacher who didn't get a class) are left out, as they are by EdgeFileLoader.
+ */
+public class ClassroomGraphGenerator {
+    // Roughly how many edges are generated (and held in memory) at a time when writing an edge file
+    private static final int EDGES_PER_BATCH = 1 << 23;
+    private static final int SCHOOLS_PER_TASK = 16;
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private final int numStudents;
+    private final long seed;
+    private int minSchoolSize = 30;
+    private int maxSchoolSize = 50000;
+    private double schoolSizeAlpha = 1.5;
+    private int minClassSize = 5;
+    private int maxClassSize = 500;
+    private double classSizeAlpha = 2.0;
+    private int minClassesPerStudent = 1;
+    private int maxClassesPerStudent = 4;
+    private int studentsPerTeacher = 20;
+    private double schoolLinkProbability = 0.05;
+
+    /**
+     * Makes a generator with the default settings.
+     * @param numStudents the number of students to generate
+     * @param seed        the seed that the graph is generated from
+     */
+    public ClassroomGraphGenerator(int numStudents, long seed) {
+        if (numStudents < 1)
+            throw new IllegalArgumentException("numStudents must be at least 1");
+        this.numStudents = numStudents;
+        this.seed = seed;
+    }
+
+    /**
+     * Sets the distribution of the number of students per school (30 to 50000, alpha = 1.5 by default). Schools
+     * are the components of the graph, unless they are linked (see setSchoolLinkProbability).
+     * @param min   the smallest school
+     * @param max   the largest school
+     * @param alpha the exponent of the power law; smaller means more big schools
+     * @return      this generator
+     */
+    public ClassroomGraphGenerator setSchoolSizes(int min, int max, double alpha) {
+        checkDistribution(min, max, alpha);
+        minSchoolSize = min;
+        maxSchoolSize = max;
+        schoolSizeAlpha = alpha;
+        return this;
+    }
+
+    /**
+     * Sets the distribution of class sizes (5 to 500, alpha = 2 by default).
+     * @param min   the smallest class
+     * @param max   the largest class
+     * @param alpha the exponent of the power law; smaller means more big classes
+     * @return      this generator
+     */
+    public ClassroomGraphGenerator setClassSizes(int min, int max, double alpha) {
+        checkDistribution(min, max, alpha);
+        minClassSize = min;
+        maxClassSize = max;
+        classSizeAlpha = alpha;
+        return this;
+    }
+
+    /**
+     * Sets how many classes every student takes, picked uniformly from [min, max] (1 to 4 by default).
+     * A student can end up with fewer teachers if two of their classes have the same teacher.
+     * @param min the fewest classes a student takes
+     * @param max the most classes a student takes
+     * @return    this generator
+     */
+    public ClassroomGraphGenerator setClassesPerStudent(int min, int max) {
+        if (min < 1 || max < min)
+            throw new IllegalArgumentException("Need 1 <= min <= max, got " + min + " and " + max);
+        minClassesPerStudent = min;
+        maxClassesPerStudent = max;
+        return this;
+    }
+
+    /**
+     * Sets the number of students per teacher of a school (20 by default).
+     * @param students the number of students per teacher
+     * @return         this generator
+     */
+    public ClassroomGraphGenerator setStudentsPerTeacher(int students) {
+        if (students < 1)
+            throw new IllegalArgumentException("studentsPerTeacher must be at least 1");
+        studentsPerTeacher = students;
+        return this;
+    }
+
+    /**
+     * Sets the probability that a school shares a teacher with the school before it (0.05 by default). 0 makes
+     * every school its own component, and 1 chains all schools into one giant component.
+     * @param probability the probability
+     * @return            this generator
+     */
+    public ClassroomGraphGenerator setSchoolLinkProbability(double probability) {
+        if (!(probability >= 0 && probability <= 1))
+            throw new IllegalArgumentException("probability must be in [0, 1], got " + probability);
+        schoolLinkProbability = probability;
+        return this;
+    }
+
+    /**
+     * Generates the graph, using the common pool.
+     * @return the graph
+     */
+    public UserGraph generate() {
+        return generate(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Generates the graph. Every edge is held in memory as a packed long before the graph is built, so for
+     * the largest graphs write an edge file instead.
+     * @param pool the pool to generate on
+     * @return     the graph
+     */
+    public UserGraph generate(ForkJoinPool pool) {
+        Plan plan = new Plan();
+        ArrayList<long[]> slices = pool.invoke(new SchoolTask(plan, 0, plan.numSchools));
+        long total = 0;
+        for (long[] slice : slices)
+            total += slice[0];
+        if (total > Integer.MAX_VALUE - 8)
+            throw new IllegalStateException(total + " edges are too many to build a graph from");
+        long[] edges = new long[(int) total];
+        int numEdges = 0;
+        for (int k = 0; k < slices.size(); k++) {
+            long[] slice = slices.get(k);
+            System.arraycopy(slice, 1, edges, numEdges, (int) slice[0]);
+            numEdges += (int) slice[0];
+            slices.set(k, null);
+        }
+        numEdges = EdgeFileLoader.sortUnique(edges, numEdges);
+        return EdgeFileLoader.buildGraph(edges, numEdges);
+    }
+
+    /**
+     * Writes the graph as an edge file that EdgeFileLoader can load ("teacher,student" lines), using the
+     * common pool.
+     * @param file the file to write, replacing anything already in it
+     * @return     the number of edges written
+     * @throws IOException if the file can't be written
+     */
+    public long writeEdgeFile(File file) throws IOException {
+        return writeEdgeFile(file, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Writes the graph as an edge file that EdgeFileLoader can load ("teacher,student" lines). The schools are
+     * generated and formatted in parallel a batch at a time and written in order, so memory stays bounded no
+     * matter how big the graph is.
+     * @param file the file to write, replacing anything already in it
+     * @param pool the pool to generate on
+     * @return     the number of edges written
+     * @throws IOException if the file can't be written
+     */
+    public long writeEdgeFile(File file, ForkJoinPool pool) throws IOException {
+        Plan plan = new Plan();
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+            long numEdges = 0;
+            int from = 0;
+            while (from < plan.numSchools) {
+                int to = from;
+                long batchEdges = 0;
+                while (to < plan.numSchools && (to == from || batchEdges < EDGES_PER_BATCH))
+                    batchEdges += plan.expectedEdges(to++);
+                ArrayList<long[]> slices = pool.invoke(new SchoolTask(plan, from, to));
+                byte[][] text = new byte[slices.size()][];
+                pool.invoke(new FormatTask(slices, text, 0, slices.size()));
+                for (int k = 0; k < text.length; k++) {
+                    numEdges += slices.get(k)[0];
+                    write(channel, buffer, text[k]);
+                }
+                from = to;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            return numEdges;
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes bytes to the channel through the buffer.
+     */
+    private static void write(FileChannel channel, ByteBuffer buffer, byte[] bytes) throws IOException {
+        int i = 0;
+        while (i < bytes.length) {
+            int n = Math.min(buffer.remaining(), bytes.length - i);
+            buffer.put(bytes, i, n);
+            i += n;
+            if (!buffer.hasRemaining()) {
+                buffer.flip();
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+                buffer.clear();
+            }
+        }
+    }
+
+    private static void checkDistribution(int min, int max, double alpha) {
+        if (min < 1 || max < min)
+            throw new IllegalArgumentException("Need 1 <= min <= max, got " + min + " and " + max);
+        if (!(alpha > 0))
+            throw new IllegalArgumentException("alpha must be positive, got " + alpha);
+    }
+
+    /**
+     * Draws from a Pareto distribution with the passed-in minimum and exponent, capped at max.
+     */
+    private static int pareto(SplittableRandom random, int min, int max, double alpha) {
+        double value = min / Math.pow(1 - random.nextDouble(), 1 / alpha);
+        return value >= max ? max : (int) value;
+    }
+
+    /**
+     * The schools of the graph, drawn up front: how many students and teachers each has, where its userIds
+     * start, and the seed it is generated from.
+     */
+    private class Plan {
+        final int numSchools;
+        final int[] students;
+        final int[] teachers;
+        final int[] firstIds;
+        final long[] seeds;
+
+        Plan() {
+            SplittableRandom random = new SplittableRandom(seed);
+            int[] sizes = new int[16];
+            int n = 0;
+            int remaining = numStudents;
+            while (remaining > 0) {
+                if (n == sizes.length)
+                    sizes = Arrays.copyOf(sizes, n * 2);
+                sizes[n] = Math.min(remaining, pareto(random, minSchoolSize, maxSchoolSize, schoolSizeAlpha));
+                remaining -= sizes[n++];
+            }
+            numSchools = n;
+            students = Arrays.copyOf(sizes, n);
+            teachers = new int[n];
+            firstIds = new int[n];
+            seeds = new long[n];
+            long nextId = 0;
+            for (int s = 0; s < n; s++) {
+                teachers[s] = (students[s] + studentsPerTeacher - 1) / studentsPerTeacher;
+                firstIds[s] = (int) nextId;
+                seeds[s] = random.nextLong();
+                nextId += students[s] + teachers[s];
+                if (nextId > Integer.MAX_VALUE)
+                    throw new IllegalArgumentException(numStudents + " students need more userIds than there are");
+            }
+        }
+
+        /**
+         * @return about how many edges school s will have
+         */
+        long expectedEdges(int s) {
+            return (long) students[s] * (minClassesPerStudent + maxClassesPerStudent) / 2;
+        }
+
+        /**
+         * Generates the edges of a school, sorted and without duplicates.
+         * @param s     the school
+         * @param edges where to put the edges (teacher in the high 32 bits, student in the low 32 bits)
+         * @param count the number of edges already in edges
+         * @return      edges, grown if needed
+         */
+        long[] generateSchool(int s, long[] edges, int[] count) {
+            SplittableRandom random = new SplittableRandom(seeds[s]);
+            int size = students[s];
+            int firstStudent = firstIds[s];
+            int firstTeacher = firstStudent + size;
+
+            // Every student takes a seat in each of their classes
+            int numSeats = 0;
+            int[] seats = new int[size * maxClassesPerStudent];
+            for (int i = 0; i < size; i++) {
+                int classes = minClassesPerStudent + random.nextInt(maxClassesPerStudent - minClassesPerStudent + 1);
+                for (int c = 0; c < classes; c++)
+                    seats[numSeats++] = firstStudent + i;
+            }
+            for (int i = numSeats - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int seat = seats[i];
+                seats[i] = seats[j];
+                seats[j] = seat;
+            }
+
+            int start = count[0];
+            if (edges.length - 1 - start < numSeats)
+                edges = Arrays.copyOf(edges, Math.max(1 + start + numSeats, edges.length * 2));
+            int n = start;
+            int seat = 0;
+            for (int c = 0; seat < numSeats; c++) {
+                int classSize = Math.min(numSeats - seat, pareto(random, minClassSize, maxClassSize, classSizeAlpha));
+                long teacher;
+                if (c == 0 && s > 0 && random.nextDouble() < schoolLinkProbability)
+                    teacher = firstIds[s - 1] + students[s - 1];
+                else if (c < teachers[s])
+                    teacher = firstTeacher + c;
+                else
+                    teacher = firstTeacher + random.nextInt(teachers[s]);
+                for (int k = 0; k < classSize; k++)
+                    edges[1 + n++] = (teacher << 32) | seats[seat++];
+            }
+
+            // A student can sit in two classes of the same teacher
+            Arrays.sort(edges, 1 + start, 1 + n);
+            int unique = start;
+            for (int e = start; e < n; e++) {
+                if (unique == start || edges[1 + e] != edges[unique])
+                    edges[1 + unique++] = edges[1 + e];
+            }
+            count[0] = unique;
+            return edges;
+        }
+    }
+
+    /**
+     * Generates the schools in [from, to), splitting into tasks of SCHOOLS_PER_TASK schools. Every task's edges
+     * come back as an array whose first element is the number of edges that follow it, in school order.
+     */
+    private static class SchoolTask extends RecursiveTask<ArrayList<long[]>> {
+        private static final long serialVersionUID = 1L;
+
+        private final Plan plan;
+        private final int from;
+        private final int to;
+
+        SchoolTask(Plan plan, int from, int to) {
+            this.plan = plan;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected ArrayList<long[]> compute() {
+            if (to - from > SCHOOLS_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                SchoolTask right = new SchoolTask(plan, mid, to);
+                right.fork();
+                ArrayList<long[]> result = new SchoolTask(plan, from, mid).compute();
+                result.addAll(right.join());
+                return result;
+            }
+            long expected = 0;
+            for (int s = from; s < to; s++)
+                expected += plan.expectedEdges(s);
+            long[] edges = new long[(int) Math.min(Integer.MAX_VALUE - 8, 1 + expected)];
+            int[] count = new int[1];
+            for (int s = from; s < to; s++)
+                edges = plan.generateSchool(s, edges, count);
+            edges[0] = count[0];
+            ArrayList<long[]> result = new ArrayList<long[]>();
+            result.add(edges);
+            return result;
+        }
+    }
+
+    /**
+     * Formats the edges of slices[from..to) as "teacher,student" lines into text[from..to).
+     */
+    private static class FormatTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final ArrayList<long[]> slices;
+        private final byte[][] text;
+        private final int from;
+        private final int to;
+
+        FormatTask(ArrayList<long[]> slices, byte[][] text, int from, int to) {
+            this.slices = slices;
+            this.text = text;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new FormatTask(slices, text, from, mid), new FormatTask(slices, text, mid, to));
+                return;
+            }
+            long[] edges = slices.get(from);
+            int numEdges = (int) edges[0];
+            // Two non-negative ints of at most 10 digits, a comma and a newline
+            byte[] bytes = new byte[numEdges * 22];
+            int pos = 0;
+            for (int e = 1; e <= numEdges; e++) {
+                pos = putInt(bytes, pos, (int) (edges[e] >>> 32));
+                bytes[pos++] = ',';
+                pos = putInt(bytes, pos, (int) edges[e]);
+                bytes[pos++] = '\n';
+            }
+            text[from] = Arrays.copyOf(bytes, pos);
+        }
+
+        /**
+         * Writes a non-negative int in decimal at bytes[pos].
+         * @return the position just past it
+         */
+        private static int putInt(byte[] bytes, int pos, int value) {
+            int digits = 1;
+            for (int v = value; v >= 10; v /= 10)
+                digits++;
+            for (int i = pos + digits - 1; i >= pos; i--) {
+                bytes[i] = (byte) ('0' + value % 10);
+                value /= 10;
+            }
+            return pos + digits;
+        }
+    }
+}
@@ -0,0 +1,412 @@
+package src;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps track of the connected components of a UserGraph as edges are added and removed.
+ * This is a union-find structure using the linked-list representation: every user (identified by its
+ * dense index in the graph) stores the leader of its component directly, and the members of each component
+ * are chained together in a doubly linked list. A union relabels the members of the smaller component, so find
+ * is O(1), the size and members of a component are available without any traversal, and building a graph
+ * edge by edge costs O(E + V log V) in total. A split moves the given members out into a new component, in time
+ * linear in the number of members moved.
+ * A leader is the id of a component. It starts out as the index of one of the component's members, but a split
+ * can move that member elsewhere, so getHead gives the first member of a component. Ids of merged-away
+ * components are reused by later splits and adds.
+ * Components are also indexed by size, so the component closest to a given size can be found in O(log n).
+ */
+class ComponentIndex {
+    private static final int INITIAL_CAPACITY = 16;
+
+    // leader[i] is the leader (component id) of user i's component
+    private int[] leader;
+    // next[i] and prev[i] are the next and previous members of user i's component, or -1 if there are none
+    private int[] next;
+    private int[] prev;
+    // The arrays below are indexed by leader, and only meaningful for leaders in use
+    private int[] size;
+    private int[] head;
+    private int[] tail;
+    private int[] leaderPos;
+    private int[] bucketPos;
+    // The leaders of all components, and the position of each leader in that array
+    private int[] leaders;
+    private int numUsers;
+    private int numComponents;
+    // Leaders below numLeaderIds are in use or in freeLeaders
+    private int numLeaderIds;
+    private int[] freeLeaders;
+    private int numFreeLeaders;
+    // The leaders of all components of each size, and the position of each leader in its bucket
+    private TreeMap<Integer, SizeBucket> bySize = new TreeMap<Integer, SizeBucket>();
+
+    /**
+     * Makes an empty index.
+     */
+    public ComponentIndex() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Makes an empty index with room for capacity users.
+     * @param capacity the initial capacity
+     */
+    public ComponentIndex(int capacity) {
+        capacity = Math.max(capacity, 1);
+        leader = new int[capacity];
+        next = new int[capacity];
+        prev = new int[capacity];
+        size = new int[capacity];
+        head = new int[capacity];
+        tail = new int[capacity];
+        leaderPos = new int[capacity];
+        bucketPos = new int[capacity];
+        leaders = new int[capacity];
+        freeLeaders = new int[capacity];
+    }
+
+    /**
+     * Adds a user in a component of its own.
+     * @return the index of the new user
+     */
+    public int add() {
+        if (numUsers == leader.length)
+            growUsers();
+        int i = numUsers++;
+        int l = newLeader();
+        leader[i] = l;
+        next[i] = -1;
+        prev[i] = -1;
+        size[l] = 1;
+        head[l] = i;
+        tail[l] = i;
+        addLeader(l);
+        addToBucket(l);
+        return i;
+    }
+
+    /**
+     * Replaces the components of all users at once: user i ends up in the same component as root[i].
+     * Every root must be its own root (root[root[i]] == root[i]). This is O(numUsers), which beats doing one
+     * union per edge when (re)building the index for a whole graph.
+     * @param root the root of every user's component, for users 0..getNumUsers()-1
+     */
+    public void assign(int[] root) {
+        numComponents = 0;
+        numFreeLeaders = 0;
+        numLeaderIds = numUsers;
+        bySize.clear();
+        while (size.length < numUsers)
+            growLeaders();
+        for (int i = 0; i < numUsers; i++) {
+            if (root[i] == i) {
+                leader[i] = i;
+                next[i] = -1;
+                prev[i] = -1;
+                size[i] = 1;
+                head[i] = i;
+                tail[i] = i;
+                addLeader(i);
+            } else {
+                freeLeaders[numFreeLeaders++] = i;
+            }
+        }
+        for (int i = 0; i < numUsers; i++) {
+            int r = root[i];
+            if (r != i) {
+                leader[i] = r;
+                next[i] = -1;
+                prev[i] = tail[r];
+                next[tail[r]] = i;
+                tail[r] = i;
+                size[r]++;
+            }
+        }
+        for (int k = 0; k < numComponents; k++)
+            addToBucket(leaders[k]);
+    }
+
+    /**
+     * Merges the components of users a and b.
+     * @param a the index of the first user
+     * @param b the index of the second user
+     * @return  true if two components were merged, false if a and b were already connected
+     */
+    public boolean union(int a, int b) {
+        int big = leader[a];
+        int small = leader[b];
+        if (big == small)
+            return false;
+        if (size[big] < size[small]) {
+            int tmp = big;
+            big = small;
+            small = tmp;
+        }
+        for (int m = head[small]; m != -1; m = next[m])
+            leader[m] = big;
+        next[tail[big]] = head[small];
+        prev[head[small]] = tail[big];
+        tail[big] = tail[small];
+        removeFromBucket(small);
+        removeFromBucket(big);
+        size[big] += size[small];
+        addToBucket(big);
+        removeLeader(small);
+        return true;
+    }
+
+    /**
+     * Moves some members of a component out into a component of their own. The caller is responsible for the
+     * members really being disconnected from the rest of their component.
+     * @param members the indices of the users to move, all in the same component and without duplicates
+     * @param count   the number of users to move (members[0..count))
+     * @return        the leader of the new component
+     */
+    public int split(int[] members, int count) {
+        int old = leader[members[0]];
+        removeFromBucket(old);
+        int l = newLeader();
+        int last = -1;
+        for (int k = 0; k < count; k++) {
+            int m = members[k];
+            unlink(m, old);
+            leader[m] = l;
+            prev[m] = last;
+            next[m] = -1;
+            if (last == -1)
+                head[l] = m;
+            else
+                next[last] = m;
+            last = m;
+        }
+        tail[l] = last;
+        size[l] = count;
+        size[old] -= count;
+        addToBucket(old);
+        addLeader(l);
+        addToBucket(l);
+        return l;
+    }
+
+    /**
+     * Removes a user, which must be in a component of its own (e.g. after all its edges were removed). The user
+     * with the highest index is moved into its place, the same way a graph swap-removes users from its user list.
+     * @param i the index of the user to remove
+     */
+    public void remove(int i) {
+        int l = leader[i];
+        removeFromBucket(l);
+        removeLeader(l);
+        int last = --numUsers;
+        if (i != last)
+            moveIndex(last, i);
+    }
+
+    /**
+     * Finds the component whose size is closest to the passed-in size. On a tie, the larger component wins.
+     * @param target the size to look for
+     * @return       the leader of the closest component, or -1 if there are no components
+     */
+    public int findNearestSize(int target) {
+        Map.Entry<Integer, SizeBucket> floor = bySize.floorEntry(target);
+        Map.Entry<Integer, SizeBucket> ceiling = bySize.ceilingEntry(target);
+        if (floor == null && ceiling == null)
+            return -1;
+        Map.Entry<Integer, SizeBucket> nearest;
+        if (floor == null)
+            nearest = ceiling;
+        else if (ceiling == null)
+            nearest = floor;
+        else
+            nearest = (long) ceiling.getKey() - target <= (long) target - floor.getKey() ? ceiling : floor;
+        return nearest.getValue().leaders[0];
+    }
+
+    /**
+     * @param i the index of a user
+     * @return  the leader of the component of user i
+     */
+    public int find(int i) {
+        return leader[i];
+    }
+
+    /**
+     * @param i the index of a user
+     * @return  the number of users in the component of user i
+     */
+    public int getSize(int i) {
+        return size[leader[i]];
+    }
+
+    /**
+     * @param l the leader of a component
+     * @return  the number of users in the component
+     */
+    public int getComponentSize(int l) {
+        return size[l];
+    }
+
+    /**
+     * @param l the leader of a component
+     * @return  the index of the first member of the component
+     */
+    public int getHead(int l) {
+        return head[l];
+    }
+
+    /**
+     * @param i the index of a user
+     * @return  the next member of user i's component, or -1 if there are no more. Starting at the head of a
+     *          component and following next visits every member of the component.
+     */
+    public int getNext(int i) {
+        return next[i];
+    }
+
+    /**
+     * @return the number of users in the index
+     */
+    public int getNumUsers() {
+        return numUsers;
+    }
+
+    /**
+     * @return the number of components
+     */
+    public int getNumComponents() {
+        return numComponents;
+    }
+
+    /**
+     * @param k which component to get, 0 <= k < getNumComponents(). The order is arbitrary and changes as
+     *          components are merged.
+     * @return  the leader of the k-th component
+     */
+    public int getLeader(int k) {
+        return leaders[k];
+    }
+
+    /**
+     * Adds leader l to the bucket for its component's size.
+     */
+    private void addToBucket(int l) {
+        SizeBucket bucket = bySize.get(size[l]);
+        if (bucket == null) {
+            bucket = new SizeBucket();
+            bySize.put(size[l], bucket);
+        }
+        if (bucket.count == bucket.leaders.length)
+            bucket.leaders = Arrays.copyOf(bucket.leaders, bucket.count * 2);
+        bucketPos[l] = bucket.count;
+        bucket.leaders[bucket.count++] = l;
+    }
+
+    /**
+     * Removes leader l from the bucket for its component's size, moving the bucket's last leader into its place.
+     */
+    private void removeFromBucket(int l) {
+        SizeBucket bucket = bySize.get(size[l]);
+        int last = bucket.leaders[--bucket.count];
+        bucket.leaders[bucketPos[l]] = last;
+        bucketPos[last] = bucketPos[l];
+        if (bucket.count == 0)
+            bySize.remove(size[l]);
+    }
+
+    /**
+     * Moves a user from one index to another, unused one.
+     */
+    private void moveIndex(int from, int to) {
+        int l = leader[from];
+        leader[to] = l;
+        next[to] = next[from];
+        prev[to] = prev[from];
+        if (prev[to] == -1)
+            head[l] = to;
+        else
+            next[prev[to]] = to;
+        if (next[to] == -1)
+            tail[l] = to;
+        else
+            prev[next[to]] = to;
+    }
+
+    /**
+     * Takes a leader that isn't in use, reusing the leaders of merged-away components first.
+     */
+    private int newLeader() {
+        if (numFreeLeaders > 0)
+            return freeLeaders[--numFreeLeaders];
+        if (numLeaderIds == size.length)
+            growLeaders();
+        return numLeaderIds++;
+    }
+
+    /**
+     * Adds l to the leaders array.
+     */
+    private void addLeader(int l) {
+        leaders[numComponents] = l;
+        leaderPos[l] = numComponents;
+        numComponents++;
+    }
+
+    /**
+     * Removes l from the leaders array, moving the last leader into its place, and frees l for reuse.
+     */
+    private void removeLeader(int l) {
+        int pos = leaderPos[l];
+        int last = leaders[--numComponents];
+        leaders[pos] = last;
+        leaderPos[last] = pos;
+        freeLeaders[numFreeLeaders++] = l;
+    }
+
+    /**
+     * Removes user m from the linked list of component l.
+     */
+    private void unlink(int m, int l) {
+        if (prev[m] == -1)
+            head[l] = next[m];
+        else
+            next[prev[m]] = next[m];
+        if (next[m] == -1)
+            tail[l] = prev[m];
+        else
+            prev[next[m]] = prev[m];
+    }
+
+    /**
+     * Doubles the capacity of the arrays indexed by user.
+     */
+    private void growUsers() {
+        int capacity = leader.length * 2;
+        leader = Arrays.copyOf(leader, capacity);
+        next = Arrays.copyOf(next, capacity);
+        prev = Arrays.copyOf(prev, capacity);
+    }
+
+    /**
+     * Doubles the capacity of the arrays indexed by leader.
+     */
+    private void growLeaders() {
+        int capacity = size.length * 2;
+        size = Arrays.copyOf(size, capacity);
+        head = Arrays.copyOf(head, capacity);
+        tail = Arrays.copyOf(tail, capacity);
+        leaderPos = Arrays.copyOf(leaderPos, capacity);
+        bucketPos = Arrays.copyOf(bucketPos, capacity);
+        leaders = Arrays.copyOf(leaders, capacity);
+        freeLeaders = Arrays.copyOf(freeLeaders, capacity);
+    }
+
+    /**
+     * The leaders of all components of one size.
+     */
+    private static class SizeBucket {
+        int[] leaders = new int[4];
+        int count;
+    }
+}
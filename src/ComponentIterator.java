@@ -0,0 +1,97 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the connected component of a user in BFS order, lazily. The BFS only goes as far as is needed
+ * to produce the next user, so stopping after k users costs about as much as the edges of those k users,
+ * however big the component is.
+ * The iterator uses the calling thread's VisitedSet of the graph, so it must be used up (or abandoned) before
+ * the same thread starts another traversal of the graph.
+ */
+public class ComponentIterator implements Iterator<User> {
+    private final VisitedSet visited;
+    // Every user found so far, in BFS order. Users before "returned" have been handed out, and users before
+    // "expanding" have had all their neighbors found.
+    private final ArrayList<User> found = new ArrayList<User>();
+    private int returned = 0;
+    private int expanding = 0;
+    private Iterator<User> neighbors;
+    private boolean expandingTeachers = false;
+    private long edgesVisited = 0;
+
+    /**
+     * Makes an iterator over the component of source.
+     * @param graph  the graph source is in
+     * @param source the user to start the BFS from
+     */
+    public ComponentIterator(UserGraph graph, User source) {
+        visited = graph.acquireVisitedSet();
+        visited.add(source.index);
+        found.add(source);
+    }
+
+    public boolean hasNext() {
+        while (returned == found.size()) {
+            if (!expand())
+                return false;
+        }
+        return true;
+    }
+
+    public User next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return found.get(returned++);
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * @return the number of users the BFS has found so far, which can be more than the number handed out
+     */
+    public int getUsersVisited() {
+        return found.size();
+    }
+
+    /**
+     * @return the number of edges the BFS has followed so far
+     */
+    public long getEdgesVisited() {
+        return edgesVisited;
+    }
+
+    /**
+     * Looks at the next neighbor of the user being expanded, adding it to found if it hasn't been visited.
+     * @return false if every user found so far has been expanded, true otherwise
+     */
+    private boolean expand() {
+        while (true) {
+            if (neighbors == null) {
+                // Only users that have been handed out are expanded, to keep the traversal as short as possible
+                if (expanding == returned || expanding == found.size())
+                    return false;
+                neighbors = found.get(expanding).getStudents().iterator();
+                expandingTeachers = false;
+            }
+            if (neighbors.hasNext()) {
+                User v = neighbors.next();
+                edgesVisited++;
+                if (visited.add(v.index))
+                    found.add(v);
+                return true;
+            }
+            if (!expandingTeachers) {
+                neighbors = found.get(expanding).getTeachers().iterator();
+                expandingTeachers = true;
+            } else {
+                neighbors = null;
+                expanding++;
+            }
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Picks a subset of a connected component with a given number of users, containing a given seed user, while
+ * cutting as few student/teacher edges as possible. This is a multilevel partitioner in the style of METIS:
+ *
+ *   1. Coarsen: repeatedly contract a heavy-edge matching, so each level has about half the vertices of the one
+ *      below, with vertex weights counting users and edge weights counting edges.
+ *   2. Grow: on the coarsest level, grow a region from the seed, always adding the vertex most connected to it,
+ *      until it weighs about as much as the target.
+ *   3. Refine: project the region back down level by level, greedily moving boundary vertices to the other side
+ *      whenever that cuts fewer edges without straying too far from the target (FM-style, without rollback).
+ *   4. Fix up: on the finest level, add or remove the boundary users that cost the fewest cut edges until the
+ *      region has exactly the target number of users.
+ *
+ * Every level costs time linear in its edges, and levels shrink geometrically, so the whole thing runs in about
+ * O(E log V) time on a component with E edges.
+ */
+class ComponentPartitioner {
+    // Coarsening stops at this many vertices, or when a level barely shrinks
+    private static final int COARSEST_SIZE = 256;
+    private static final double MIN_SHRINK = 0.9;
+    // Coarse vertices are kept at most this fraction of the target, so the coarsest level can still hit it
+    private static final int WEIGHT_FRACTION = 16;
+    private static final int MAX_REFINE_PASSES = 8;
+
+    private ComponentPartitioner() {
+
+    }
+
+    /**
+     * Picks target users of the seed's component, seed included, cutting as few edges as possible.
+     * @param graph  the graph the seed is in
+     * @param seed   the user that must be picked
+     * @param target the number of users to pick. If the component is smaller than that, all of it is picked.
+     * @return       the picked users
+     */
+    static ArrayList<User> partition(UserGraph graph, User seed, int target) {
+        ArrayList<User> users = new ArrayList<User>();
+        for (Iterator<User> it = graph.getComponentIterator(seed); it.hasNext(); )
+            users.add(it.next());
+        if (users.size() <= target)
+            return users;
+        if (target <= 0)
+            return new ArrayList<User>();
+
+        // Vertices are numbered in the order of the users' indices in the graph, so toLevel can find the vertex of
+        // a user by binary search instead of with an array the size of the whole graph
+        int[] indices = new int[users.size()];
+        for (int i = 0; i < indices.length; i++)
+            indices[i] = users.get(i).index;
+        Arrays.sort(indices);
+        ArrayList<User> userList = graph.getUserList();
+        for (int i = 0; i < indices.length; i++)
+            users.set(i, userList.get(indices[i]));
+
+        Level finest = toLevel(users, indices);
+        int seedVertex = -1;
+        for (int i = 0; i < users.size(); i++) {
+            if (users.get(i) == seed)
+                seedVertex = i;
+        }
+
+        // Coarsen
+        Random random = new Random(seed.getId());
+        int maxWeight = Math.max(1, target / WEIGHT_FRACTION);
+        ArrayList<Level> levels = new ArrayList<Level>();
+        levels.add(finest);
+        Level level = finest;
+        while (level.n > COARSEST_SIZE) {
+            Level coarse = coarsen(level, maxWeight, random);
+            if (coarse.n > MIN_SHRINK * level.n) {
+                level.cmap = null;
+                break;
+            }
+            levels.add(coarse);
+            level = coarse;
+        }
+        int[] seeds = new int[levels.size()];
+        seeds[0] = seedVertex;
+        for (int l = 1; l < levels.size(); l++)
+            seeds[l] = levels.get(l - 1).cmap[seeds[l - 1]];
+
+        // Grow, then refine back down
+        int top = levels.size() - 1;
+        boolean[] part = grow(levels.get(top), seeds[top], target);
+        int tolerance = Math.max(1, target / 50);
+        refine(levels.get(top), part, seeds[top], target, tolerance);
+        for (int l = top - 1; l >= 0; l--) {
+            Level fine = levels.get(l);
+            boolean[] finePart = new boolean[fine.n];
+            for (int v = 0; v < fine.n; v++)
+                finePart[v] = part[fine.cmap[v]];
+            part = finePart;
+            refine(fine, part, seeds[l], target, tolerance);
+        }
+        fixUp(finest, part, seedVertex, target);
+
+        ArrayList<User> picked = new ArrayList<User>(target);
+        for (int v = 0; v < finest.n; v++) {
+            if (part[v])
+                picked.add(users.get(v));
+        }
+        return picked;
+    }
+
+    /**
+     * Builds the finest level from the users of a component: vertex i is users.get(i), every vertex weighs 1, and
+     * every student/teacher edge shows up in the adjacency of both its ends with weight 1.
+     * @param users   the users of the component
+     * @param indices the index of every user in the graph, in ascending order (so users must be in that order too)
+     */
+    private static Level toLevel(ArrayList<User> users, int[] indices) {
+        Level level = new Level(users.size());
+        int numEntries = 0;
+        for (User u : users)
+            numEntries += u.getStudents().size() + u.getTeachers().size();
+        level.adjncy = new int[numEntries];
+        level.adjwgt = new int[numEntries];
+        int e = 0;
+        for (int i = 0; i < users.size(); i++) {
+            User u = users.get(i);
+            level.vwgt[i] = 1;
+            for (User v : u.getStudents()) {
+                level.adjncy[e] = Arrays.binarySearch(indices, v.index);
+                level.adjwgt[e++] = 1;
+            }
+            for (User v : u.getTeachers()) {
+                level.adjncy[e] = Arrays.binarySearch(indices, v.index);
+                level.adjwgt[e++] = 1;
+            }
+            level.xadj[i + 1] = e;
+        }
+        return level;
+    }
+
+    /**
+     * Contracts a heavy-edge matching of a level: vertices are visited in random order, and each unmatched one is
+     * matched with the unmatched neighbor it shares the heaviest edge with, as long as the pair weighs at most
+     * maxWeight. Sets fine.cmap.
+     * @return the coarser level
+     */
+    private static Level coarsen(Level fine, int maxWeight, Random random) {
+        int n = fine.n;
+        int[] match = new int[n];
+        Arrays.fill(match, -1);
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++)
+            order[i] = i;
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+        for (int u : order) {
+            if (match[u] != -1)
+                continue;
+            int best = u;
+            int bestWeight = 0;
+            for (int e = fine.xadj[u]; e < fine.xadj[u + 1]; e++) {
+                int v = fine.adjncy[e];
+                if (match[v] == -1 && v != u && fine.vwgt[u] + fine.vwgt[v] <= maxWeight
+                        && fine.adjwgt[e] > bestWeight) {
+                    best = v;
+                    bestWeight = fine.adjwgt[e];
+                }
+            }
+            match[u] = best;
+            match[best] = u;
+        }
+
+        int[] cmap = new int[n];
+        Arrays.fill(cmap, -1);
+        int cn = 0;
+        for (int u = 0; u < n; u++) {
+            if (cmap[u] == -1) {
+                cmap[u] = cn;
+                cmap[match[u]] = cn;
+                cn++;
+            }
+        }
+        fine.cmap = cmap;
+
+        // Merge the edges of each matched pair, adding up the weights of edges to the same coarse vertex
+        Level coarse = new Level(cn);
+        int[] adjncy = new int[fine.adjncy.length];
+        int[] adjwgt = new int[fine.adjncy.length];
+        int[] slot = new int[cn];
+        Arrays.fill(slot, -1);
+        int e = 0;
+        int c = 0;
+        for (int u = 0; u < n; u++) {
+            if (cmap[u] != c)
+                continue;
+            int rowStart = e;
+            int partner = match[u];
+            coarse.vwgt[c] = fine.vwgt[u] + (partner != u ? fine.vwgt[partner] : 0);
+            for (int k = 0; k < 2; k++) {
+                int member = k == 0 ? u : partner;
+                if (k == 1 && partner == u)
+                    break;
+                for (int f = fine.xadj[member]; f < fine.xadj[member + 1]; f++) {
+                    int cv = cmap[fine.adjncy[f]];
+                    if (cv == c)
+                        continue;
+                    if (slot[cv] < rowStart) {
+                        slot[cv] = e;
+                        adjncy[e] = cv;
+                        adjwgt[e++] = fine.adjwgt[f];
+                    } else {
+                        adjwgt[slot[cv]] += fine.adjwgt[f];
+                    }
+                }
+            }
+            c++;
+            coarse.xadj[c] = e;
+        }
+        coarse.adjncy = Arrays.copyOf(adjncy, e);
+        coarse.adjwgt = Arrays.copyOf(adjwgt, e);
+        return coarse;
+    }
+
+    /**
+     * Grows a region from the seed, always adding the vertex with the heaviest edges into the region, until the
+     * region weighs as close to target as it can get. Vertices that would overshoot the target by more than the
+     * region currently undershoots it are skipped.
+     * @return part[v] is true if v is in the region
+     */
+    private static boolean[] grow(Level level, int seed, int target) {
+        boolean[] part = new boolean[level.n];
+        int[] conn = new int[level.n];
+        PriorityQueue<Long> frontier = new PriorityQueue<Long>(16, Collections.reverseOrder());
+        part[seed] = true;
+        int weight = level.vwgt[seed];
+        addNeighbors(level, seed, part, conn, frontier);
+        while (weight < target && !frontier.isEmpty()) {
+            long entry = frontier.poll();
+            int v = (int) entry;
+            if (part[v] || (int) (entry >> 32) != conn[v])
+                continue;
+            if (weight + level.vwgt[v] - target > target - weight)
+                continue;
+            part[v] = true;
+            weight += level.vwgt[v];
+            addNeighbors(level, v, part, conn, frontier);
+        }
+        return part;
+    }
+
+    /**
+     * Adds the edges of v (which just joined the region) to the connectivity of its neighbors outside the region,
+     * and queues those neighbors with their new connectivity.
+     */
+    private static void addNeighbors(Level level, int v, boolean[] part, int[] conn, PriorityQueue<Long> frontier) {
+        for (int e = level.xadj[v]; e < level.xadj[v + 1]; e++) {
+            int w = level.adjncy[e];
+            if (!part[w]) {
+                conn[w] += level.adjwgt[e];
+                frontier.add(pack(conn[w], w));
+            }
+        }
+    }
+
+    /**
+     * Greedy boundary refinement: moves every vertex whose move to the other side cuts fewer edges, as long as
+     * the region stays within tolerance of the target (or gets closer to it), and moves vertices whose move keeps
+     * the cut the same but gets the region closer to the target. The seed never moves. Stops after a pass with no
+     * moves.
+     */
+    private static void refine(Level level, boolean[] part, int seed, int target, int tolerance) {
+        int weight = 0;
+        for (int v = 0; v < level.n; v++) {
+            if (part[v])
+                weight += level.vwgt[v];
+        }
+        for (int pass = 0; pass < MAX_REFINE_PASSES; pass++) {
+            int moves = 0;
+            for (int v = 0; v < level.n; v++) {
+                if (v == seed)
+                    continue;
+                int gain = gain(level, part, v);
+                int newWeight = part[v] ? weight - level.vwgt[v] : weight + level.vwgt[v];
+                int imbalance = Math.abs(weight - target);
+                int newImbalance = Math.abs(newWeight - target);
+                boolean balanced = newImbalance <= Math.max(tolerance, imbalance);
+                if ((gain > 0 && balanced) || (gain == 0 && newImbalance < imbalance)) {
+                    part[v] = !part[v];
+                    weight = newWeight;
+                    moves++;
+                }
+            }
+            if (moves == 0)
+                break;
+        }
+    }
+
+    /**
+     * Moves single users across the boundary until the region has exactly target users, always picking the user
+     * whose move costs the fewest cut edges. Assumes every vertex weighs 1 and the level has more than target
+     * vertices.
+     */
+    private static void fixUp(Level level, boolean[] part, int seed, int target) {
+        int weight = 0;
+        for (int v = 0; v < level.n; v++) {
+            if (part[v])
+                weight++;
+        }
+        if (weight == target)
+            return;
+        // Shrink the region if it is too big, grow it if it is too small
+        boolean from = weight > target;
+        PriorityQueue<Long> candidates = new PriorityQueue<Long>(16, Collections.reverseOrder());
+        for (int v = 0; v < level.n; v++) {
+            if (part[v] == from && v != seed && isBoundary(level, part, v))
+                candidates.add(pack(gain(level, part, v), v));
+        }
+        int scan = 0;
+        while (weight != target) {
+            int v = -1;
+            while (!candidates.isEmpty()) {
+                long entry = candidates.poll();
+                int w = (int) entry;
+                if (part[w] != from)
+                    continue;
+                int gain = gain(level, part, w);
+                if ((int) (entry >> 32) != gain) {
+                    candidates.add(pack(gain, w));
+                    continue;
+                }
+                v = w;
+                break;
+            }
+            // No boundary left on that side (e.g. a disconnected region), so take any user on it
+            while (v == -1) {
+                if (part[scan] == from && scan != seed)
+                    v = scan;
+                scan++;
+            }
+            part[v] = !from;
+            weight += from ? -1 : 1;
+            for (int e = level.xadj[v]; e < level.xadj[v + 1]; e++) {
+                int w = level.adjncy[e];
+                if (part[w] == from && w != seed)
+                    candidates.add(pack(gain(level, part, w), w));
+            }
+        }
+    }
+
+    /**
+     * @return how many fewer edges are cut if v moves to the other side (negative if more are)
+     */
+    private static int gain(Level level, boolean[] part, int v) {
+        int gain = 0;
+        for (int e = level.xadj[v]; e < level.xadj[v + 1]; e++)
+            gain += part[level.adjncy[e]] != part[v] ? level.adjwgt[e] : -level.adjwgt[e];
+        return gain;
+    }
+
+    /**
+     * @return true if v has a neighbor on the other side
+     */
+    private static boolean isBoundary(Level level, boolean[] part, int v) {
+        for (int e = level.xadj[v]; e < level.xadj[v + 1]; e++) {
+            if (part[level.adjncy[e]] != part[v])
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Packs a priority and a vertex into a long that sorts by priority first.
+     */
+    private static long pack(int priority, int v) {
+        return ((long) priority << 32) | (v & 0xFFFFFFFFL);
+    }
+
+    /**
+     * One level of the multilevel hierarchy, as a weighted graph in CSR form: the neighbors of v are
+     * adjncy[xadj[v]..xadj[v+1]) with edge weights adjwgt[...], and v stands for vwgt[v] users.
+     */
+    private static class Level {
+        final int n;
+        final int[] vwgt;
+        final int[] xadj;
+        int[] adjncy;
+        int[] adjwgt;
+        // cmap[v] is the vertex v was contracted into on the next coarser level
+        int[] cmap;
+
+        Level(int n) {
+            this.n = n;
+            vwgt = new int[n];
+            xadj = new int[n + 1];
+        }
+    }
+}
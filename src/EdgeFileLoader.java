@@ -0,0 +1,327 @@
+package src;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Builds a UserGraph from a text file of (teacher, student) edges, one per line, with the two userIds separated
+ * by a comma, tab or spaces. Blank lines and lines starting with '#' are skipped.
+ * The file is streamed through a FileChannel in fixed-size chunks, and each chunk is parsed in parallel into
+ * packed primitive edges (teacher in the high 32 bits, student in the low 32 bits). The edges are then sorted
+ * and deduplicated, and the users and their (exactly sized) adjacency are built in a single pass, without any
+ * of the per-edge duplicate checks of User.addStudent. Besides the graph itself, memory is bounded by the
+ * chunk buffer and the edges parsed from one chunk, plus about 24 bytes per edge of primitive working arrays.
+ * The edge array is sized by extrapolating the number of edges in the first chunk to the whole file, so it
+ * is about as big as the edges need whatever the length of the lines.
+ */
+public class EdgeFileLoader {
+    private static final int CHUNK_BYTES = 1 << 24;
+    private static final int SLICE_BYTES = 1 << 20;
+
+    private EdgeFileLoader() {
+
+    }
+
+    /**
+     * Loads a graph from an edge file, using the common pool.
+     * @param file the edge file
+     * @return     the graph
+     * @throws IOException if the file can't be read or has a malformed line
+     */
+    public static UserGraph load(File file) throws IOException {
+        return load(file, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Loads a graph from an edge file.
+     * @param file the edge file
+     * @param pool the pool to parse and sort on
+     * @return     the graph
+     * @throws IOException if the file can't be read or has a malformed line
+     */
+    public static UserGraph load(File file, ForkJoinPool pool) throws IOException {
+        long[] edges = readEdges(file, pool);
+        int numEdges = sortUnique(edges, edges.length);
+        return buildGraph(edges, numEdges);
+    }
+
+    /**
+     * Reads every edge of the file, packed into longs.
+     */
+    private static long[] readEdges(File file, ForkJoinPool pool) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK_BYTES);
+            long[] edges = new long[16];
+            int numEdges = 0;
+            long chunkStart = 0;
+            boolean eof = false;
+            while (!eof) {
+                eof = channel.read(buffer) < 0;
+                if (!eof && buffer.hasRemaining())
+                    continue;
+                byte[] bytes = buffer.array();
+                int length = buffer.position();
+                // Only parse up to the last complete line; the rest is carried over to the next chunk
+                int end = eof ? length : lastLineEnd(bytes, length);
+                if (end < 0)
+                    throw new IOException("Line longer than " + CHUNK_BYTES + " bytes at byte " + chunkStart);
+                ArrayList<long[]> slices;
+                try {
+                    slices = pool.invoke(new ParseTask(bytes, 0, end, chunkStart));
+                } catch (IllegalArgumentException e) {
+                    // The pool may wrap the exception thrown by the parsing thread in a copy of itself
+                    Throwable cause = e;
+                    while (cause.getCause() instanceof IllegalArgumentException)
+                        cause = cause.getCause();
+                    throw new IOException(file + ": " + cause.getMessage(), e);
+                }
+                for (long[] parsed : slices) {
+                    int count = (int) parsed[0];
+                    if (numEdges + count > edges.length)
+                        edges = Arrays.copyOf(edges, Math.max(numEdges + count, edges.length + (edges.length >> 1)));
+                    System.arraycopy(parsed, 1, edges, numEdges, count);
+                    numEdges += count;
+                }
+                if (chunkStart == 0 && !eof && end > 0) {
+                    // The rest of the file most likely has lines like the first chunk, plus a little slack
+                    long estimate = (long) (numEdges * ((double) channel.size() / end) * 1.05) + 16;
+                    if (estimate > edges.length)
+                        edges = Arrays.copyOf(edges, (int) Math.min(Integer.MAX_VALUE - 8, estimate));
+                }
+                System.arraycopy(bytes, end, bytes, 0, length - end);
+                buffer.position(length - end);
+                chunkStart += end;
+            }
+            return Arrays.copyOf(edges, numEdges);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * @return the position just past the last newline in bytes[0..length), or -1 if there is none
+     */
+    private static int lastLineEnd(byte[] bytes, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            if (bytes[i] == '\n')
+                return i + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Sorts the first n edges and removes duplicates.
+     * @return the number of distinct edges, which are now at the front of the array
+     */
+    static int sortUnique(long[] values, int n) {
+        Arrays.parallelSort(values, 0, n);
+        int unique = 0;
+        for (int i = 0; i < n; i++) {
+            if (unique == 0 || values[i] != values[unique - 1])
+                values[unique++] = values[i];
+        }
+        return unique;
+    }
+
+    /**
+     * Builds the users and adjacency of the graph from sorted, distinct edges. Users get dense indices in
+     * userId order; both ends of every edge are resolved to those indices by walking sorted lists side by
+     * side, rather than by a lookup per edge.
+     */
+    static UserGraph buildGraph(long[] edges, int numEdges) {
+        // The edges are sorted by teacher; sort (student, edge position) pairs, packed the same way as the
+        // edges, to get them by student as well
+        long[] byStudent = new long[numEdges];
+        for (int e = 0; e < numEdges; e++)
+            byStudent[e] = ((long) student(edges[e]) << 32) | e;
+        Arrays.parallelSort(byStudent);
+
+        // Merge the distinct teachers and the distinct students into the sorted list of userIds
+        int[] ids = new int[Math.max(16, numEdges)];
+        int numUsers = 0;
+        int t = 0;
+        int s = 0;
+        while (t < numEdges || s < numEdges) {
+            int next;
+            if (s == numEdges || (t < numEdges && teacher(edges[t]) <= high(byStudent[s])))
+                next = teacher(edges[t++]);
+            else
+                next = high(byStudent[s++]);
+            if (numUsers == 0 || next != ids[numUsers - 1]) {
+                if (numUsers == ids.length)
+                    ids = Arrays.copyOf(ids, (int) Math.min(Integer.MAX_VALUE - 8, ids.length * 2L));
+                ids[numUsers++] = next;
+            }
+        }
+
+        int[] teacherIndex = new int[numEdges];
+        int[] studentIndex = new int[numEdges];
+        int[] numStudents = new int[numUsers];
+        int[] numTeachers = new int[numUsers];
+        for (int e = 0, i = 0; e < numEdges; e++) {
+            while (ids[i] != teacher(edges[e]))
+                i++;
+            teacherIndex[e] = i;
+            numStudents[i]++;
+        }
+        for (int k = 0, i = 0; k < numEdges; k++) {
+            while (ids[i] != high(byStudent[k]))
+                i++;
+            studentIndex[low(byStudent[k])] = i;
+            numTeachers[i]++;
+        }
+        byStudent = null;
+
+        User[] users = new User[numUsers];
+        HashMap<Integer, User> userMap = new HashMap<Integer, User>(numUsers * 4 / 3 + 1);
+        for (int i = 0; i < numUsers; i++) {
+            users[i] = new User(ids[i]);
+            users[i].reserve(numStudents[i], numTeachers[i]);
+            userMap.put(ids[i], users[i]);
+        }
+        for (int e = 0; e < numEdges; e++)
+            users[teacherIndex[e]].addStudentUnchecked(users[studentIndex[e]]);
+        return new UserGraph(userMap);
+    }
+
+    private static int teacher(long edge) {
+        return high(edge);
+    }
+
+    private static int student(long edge) {
+        return low(edge);
+    }
+
+    private static int high(long packed) {
+        return (int) (packed >> 32);
+    }
+
+    private static int low(long packed) {
+        return (int) packed;
+    }
+
+    /**
+     * Parses the lines in bytes[from..to), splitting into slices of about SLICE_BYTES (at line boundaries) that
+     * are parsed in parallel. Every slice's edges come back as an array whose first element is the number of
+     * edges that follow it.
+     */
+    private static class ParseTask extends RecursiveTask<ArrayList<long[]>> {
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] bytes;
+        private final int from;
+        private final int to;
+        private final long fileOffset;
+
+        ParseTask(byte[] bytes, int from, int to, long fileOffset) {
+            this.bytes = bytes;
+            this.from = from;
+            this.to = to;
+            this.fileOffset = fileOffset;
+        }
+
+        protected ArrayList<long[]> compute() {
+            if (to - from > SLICE_BYTES) {
+                int mid = (from + to) >>> 1;
+                while (mid < to && bytes[mid - 1] != '\n')
+                    mid++;
+                if (mid < to) {
+                    ParseTask right = new ParseTask(bytes, mid, to, fileOffset);
+                    right.fork();
+                    ArrayList<long[]> result = new ParseTask(bytes, from, mid, fileOffset).compute();
+                    result.addAll(right.join());
+                    return result;
+                }
+            }
+            ArrayList<long[]> result = new ArrayList<long[]>();
+            result.add(parse());
+            return result;
+        }
+
+        /**
+         * Parses bytes[from..to), which starts at the beginning of a line.
+         */
+        private long[] parse() {
+            long[] parsed = new long[1 + (to - from) / 4];
+            int count = 0;
+            int i = from;
+            while (i < to) {
+                int lineStart = i;
+                i = skipBlanks(i);
+                if (i >= to || bytes[i] == '\n' || bytes[i] == '\r' || bytes[i] == '#') {
+                    i = nextLine(i);
+                    continue;
+                }
+                int[] pos = {i};
+                long teacher = parseInt(pos, lineStart);
+                i = skipBlanks(pos[0]);
+                if (i < to && bytes[i] == ',')
+                    i = skipBlanks(i + 1);
+                pos[0] = i;
+                long student = parseInt(pos, lineStart);
+                i = skipBlanks(pos[0]);
+                if (i < to && bytes[i] == '\r')
+                    i++;
+                if (i < to && bytes[i] != '\n')
+                    throw malformed(lineStart);
+                if (count + 1 == parsed.length)
+                    parsed = Arrays.copyOf(parsed, parsed.length * 2);
+                parsed[++count] = (teacher << 32) | (student & 0xffffffffL);
+                i++;
+            }
+            parsed[0] = count;
+            return parsed;
+        }
+
+        /**
+         * Parses a (possibly negative) int starting at pos[0], leaving pos[0] just past it.
+         */
+        private long parseInt(int[] pos, int lineStart) {
+            int i = pos[0];
+            boolean negative = i < to && bytes[i] == '-';
+            if (negative)
+                i++;
+            int digitsStart = i;
+            long value = 0;
+            while (i < to && bytes[i] >= '0' && bytes[i] <= '9' && i - digitsStart < 11) {
+                value = value * 10 + (bytes[i] - '0');
+                i++;
+            }
+            if (negative)
+                value = -value;
+            if (i == digitsStart || value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+                throw malformed(lineStart);
+            pos[0] = i;
+            return value;
+        }
+
+        private int skipBlanks(int i) {
+            while (i < to && (bytes[i] == ' ' || bytes[i] == '\t'))
+                i++;
+            return i;
+        }
+
+        private int nextLine(int i) {
+            while (i < to && bytes[i] != '\n')
+                i++;
+            return i + 1;
+        }
+
+        private IllegalArgumentException malformed(int lineStart) {
+            int lineEnd = lineStart;
+            while (lineEnd < to && bytes[lineEnd] != '\n' && lineEnd - lineStart < 80)
+                lineEnd++;
+            return new IllegalArgumentException("Malformed edge at byte " + (fileOffset + lineStart) + ": \""
+                    + new String(bytes, lineStart, lineEnd - lineStart).trim() + "\"");
+        }
+    }
+}
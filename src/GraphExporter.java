@@ -0,0 +1,278 @@
+package src;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Writes a UserGraph (or part of it) out as text, without Swing or JUNG. Users are streamed straight from the
+ * graph into a fixed-size buffer that is written to a channel whenever it fills up, so the memory used does not
+ * depend on the size of the graph or of the output. Every edge is written once, from teacher to student.
+ *
+ * Formats:
+ *   DOT     - a Graphviz digraph, with siteVersion and infected attributes on every node
+ *   GRAPHML - a GraphML document, with siteVersion and infected data on every node
+ *   CSV     - an edge list with the header "teacher,teacherSiteVersion,student,studentSiteVersion". Users without
+ *             any written edge get a row of their own with the student columns left empty.
+ */
+public class GraphExporter {
+    public enum Format { DOT, GRAPHML, CSV }
+
+    private static final int BUFFER_BYTES = 1 << 16;
+    // The most bytes any single put writes, so that one check per put is enough
+    private static final int MAX_PUT_BYTES = 256;
+
+    private final UserGraph graph;
+    private final Format format;
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+    private final byte[] digits = new byte[11];
+    private long bytesWritten = 0;
+
+    /**
+     * Makes an exporter. Use the static methods instead.
+     */
+    private GraphExporter(UserGraph graph, Format format, WritableByteChannel channel) {
+        this.graph = graph;
+        this.format = format;
+        this.channel = channel;
+    }
+
+    /**
+     * Writes every user and edge of a graph.
+     * @param graph   the graph to write
+     * @param format  the format to write in
+     * @param channel the channel to write to. It is not closed.
+     * @return        the number of bytes written
+     * @throws IOException if the channel can't be written to
+     */
+    public static long writeGraph(final UserGraph graph, Format format, WritableByteChannel channel)
+            throws IOException {
+        return new GraphExporter(graph, format, channel).write(new Selection() {
+            Iterator<User> users() {
+                return graph.getUserList().iterator();
+            }
+
+            boolean contains(User user) {
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Writes the connected component of a user.
+     * @param graph   the graph the user is in
+     * @param userId  the userId of the user
+     * @param format  the format to write in
+     * @param channel the channel to write to. It is not closed.
+     * @return        the number of bytes written
+     * @throws IOException if the channel can't be written to
+     * @throws IllegalArgumentException if there is no user with that userId in the graph
+     */
+    public static long writeComponent(final UserGraph graph, int userId, Format format, WritableByteChannel channel)
+            throws IOException {
+        final User user = graph.getUser(userId);
+        if (user == null)
+            throw new IllegalArgumentException("No user with id " + userId);
+        return new GraphExporter(graph, format, channel).write(new Selection() {
+            Iterator<User> users() {
+                return graph.getComponentIterator(user);
+            }
+
+            // Every neighbor of a user in the component is in the component
+            boolean contains(User other) {
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Writes the infected users of a graph, and the edges between them.
+     * @param graph   the graph to write
+     * @param format  the format to write in
+     * @param channel the channel to write to. It is not closed.
+     * @return        the number of bytes written
+     * @throws IOException if the channel can't be written to
+     */
+    public static long writeInfected(final UserGraph graph, Format format, WritableByteChannel channel)
+            throws IOException {
+        final InfectedSet infectedUsers = graph.getInfectedUsers();
+        return new GraphExporter(graph, format, channel).write(new Selection() {
+            Iterator<User> users() {
+                return new Iterator<User>() {
+                    private int next = infectedUsers.nextInfected(0);
+
+                    public boolean hasNext() {
+                        return next >= 0;
+                    }
+
+                    public User next() {
+                        if (next < 0)
+                            throw new NoSuchElementException();
+                        User user = graph.getUserList().get(next);
+                        next = infectedUsers.nextInfected(next + 1);
+                        return user;
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            boolean contains(User user) {
+                return infectedUsers.contains(user.index);
+            }
+        });
+    }
+
+    /**
+     * Writes the selected users and the edges between them in this exporter's format.
+     * @param selection the users to write
+     * @return          the number of bytes written
+     */
+    private long write(Selection selection) throws IOException {
+        switch (format) {
+            case DOT:
+                writeDot(selection);
+                break;
+            case GRAPHML:
+                writeGraphMl(selection);
+                break;
+            default:
+                writeCsv(selection);
+                break;
+        }
+        flush();
+        return bytesWritten;
+    }
+
+    private void writeDot(Selection selection) throws IOException {
+        put("digraph users {\n");
+        for (Iterator<User> users = selection.users(); users.hasNext(); ) {
+            User user = users.next();
+            put("  ").put(user.getId()).put(" [siteVersion=").put(user.getSiteVersion())
+                    .put(", infected=").put(isInfected(user) ? "true" : "false").put("];\n");
+        }
+        for (Iterator<User> users = selection.users(); users.hasNext(); ) {
+            User teacher = users.next();
+            for (User student : teacher.getStudents()) {
+                if (selection.contains(student))
+                    put("  ").put(teacher.getId()).put(" -> ").put(student.getId()).put(";\n");
+            }
+        }
+        put("}\n");
+    }
+
+    private void writeGraphMl(Selection selection) throws IOException {
+        put("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        put("<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\">\n");
+        put("  <key id=\"siteVersion\" for=\"node\" attr.name=\"siteVersion\" attr.type=\"int\"/>\n");
+        put("  <key id=\"infected\" for=\"node\" attr.name=\"infected\" attr.type=\"boolean\"/>\n");
+        put("  <graph id=\"users\" edgedefault=\"directed\">\n");
+        for (Iterator<User> users = selection.users(); users.hasNext(); ) {
+            User user = users.next();
+            put("    <node id=\"u").put(user.getId()).put("\"><data key=\"siteVersion\">").put(user.getSiteVersion())
+                    .put("</data><data key=\"infected\">").put(isInfected(user) ? "true" : "false").put("</data></node>\n");
+        }
+        for (Iterator<User> users = selection.users(); users.hasNext(); ) {
+            User teacher = users.next();
+            for (User student : teacher.getStudents()) {
+                if (selection.contains(student))
+                    put("    <edge source=\"u").put(teacher.getId()).put("\" target=\"u").put(student.getId()).put("\"/>\n");
+            }
+        }
+        put("  </graph>\n");
+        put("</graphml>\n");
+    }
+
+    private void writeCsv(Selection selection) throws IOException {
+        put("teacher,teacherSiteVersion,student,studentSiteVersion\n");
+        for (Iterator<User> users = selection.users(); users.hasNext(); ) {
+            User teacher = users.next();
+            boolean wroteEdge = false;
+            for (User student : teacher.getStudents()) {
+                if (selection.contains(student)) {
+                    put(teacher.getId()).put(",").put(teacher.getSiteVersion()).put(",")
+                            .put(student.getId()).put(",").put(student.getSiteVersion()).put("\n");
+                    wroteEdge = true;
+                }
+            }
+            if (!wroteEdge && !hasSelectedTeacher(teacher, selection))
+                put(teacher.getId()).put(",").put(teacher.getSiteVersion()).put(",,\n");
+        }
+    }
+
+    /**
+     * @return true if any teacher of the user is selected, so the user shows up as a student in some edge
+     */
+    private static boolean hasSelectedTeacher(User user, Selection selection) {
+        for (User teacher : user.getTeachers()) {
+            if (selection.contains(teacher))
+                return true;
+        }
+        return false;
+    }
+
+    private boolean isInfected(User user) {
+        return graph.getInfectedUsers().contains(user.index);
+    }
+
+    /**
+     * Puts an ASCII string into the buffer, a char at a time rather than through a byte[] copy of it.
+     */
+    private GraphExporter put(String s) throws IOException {
+        if (buffer.remaining() < MAX_PUT_BYTES)
+            flush();
+        for (int i = 0, n = s.length(); i < n; i++)
+            buffer.put((byte) s.charAt(i));
+        return this;
+    }
+
+    /**
+     * Puts an int into the buffer in decimal, without making a String out of it.
+     */
+    private GraphExporter put(int value) throws IOException {
+        if (buffer.remaining() < MAX_PUT_BYTES)
+            flush();
+        long v = value;
+        if (v < 0) {
+            buffer.put((byte) '-');
+            v = -v;
+        }
+        int n = 0;
+        do {
+            digits[n++] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v > 0);
+        while (n > 0)
+            buffer.put(digits[--n]);
+        return this;
+    }
+
+    /**
+     * Writes out everything in the buffer and clears it.
+     */
+    private void flush() throws IOException {
+        buffer.flip();
+        bytesWritten += buffer.remaining();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * The users to export. users() is called once per pass over them, so it must hand out a fresh iterator (that
+     * doesn't copy the users) every time.
+     */
+    private static abstract class Selection {
+        abstract Iterator<User> users();
+
+        /**
+         * @return true if the user is selected, given that it is a neighbor of a selected user
+         */
+        abstract boolean contains(User user);
+    }
+}
@@ -0,0 +1,75 @@
+package src;
+
+/**
+ * Receives measurements of what a UserGraph does. Plug an implementation in with UserGraph.setMetrics:
+ * InMemoryGraphMetrics keeps everything in memory, JmxGraphMetrics additionally exposes it over JMX, and
+ * JfrGraphMetrics emits JDK Flight Recorder events.
+ * UserGraph checks isEnabled() before timing or counting anything, and traversals count into local variables
+ * that are reported once per operation, so a disabled GraphMetrics costs next to nothing.
+ */
+public interface GraphMetrics {
+    /**
+     * A GraphMetrics that records nothing. This is the default for every UserGraph.
+     */
+    GraphMetrics DISABLED = new GraphMetrics() {
+        public boolean isEnabled() {
+            return false;
+        }
+
+        public void recordOperation(String operation, long nanos) {
+        }
+
+        public void recordTraversal(String operation, long usersVisited, long edgesVisited) {
+        }
+
+        public void recordComponentsScanned(String operation, long components) {
+        }
+
+        public void recordAllocation(String what, long count) {
+        }
+
+        public void recordInfected(int siteVersion, long users) {
+        }
+    };
+
+    /**
+     * @return true if measurements should be taken at all, false otherwise
+     */
+    boolean isEnabled();
+
+    /**
+     * Records how long one call of an operation (e.g. "limitedInfection") took.
+     * @param operation the name of the operation
+     * @param nanos     the time it took, in nanoseconds
+     */
+    void recordOperation(String operation, long nanos);
+
+    /**
+     * Records the size of a traversal done by an operation.
+     * @param operation    the name of the operation
+     * @param usersVisited the number of users the traversal visited
+     * @param edgesVisited the number of edges the traversal followed
+     */
+    void recordTraversal(String operation, long usersVisited, long edgesVisited);
+
+    /**
+     * Records the number of components (trees) an operation looked at.
+     * @param operation  the name of the operation
+     * @param components the number of components
+     */
+    void recordComponentsScanned(String operation, long components);
+
+    /**
+     * Records that some objects were allocated.
+     * @param what  what was allocated (e.g. "UserTree")
+     * @param count how many were allocated
+     */
+    void recordAllocation(String what, long count);
+
+    /**
+     * Records that users were infected.
+     * @param siteVersion the site version they were infected with
+     * @param users       the number of users infected
+     */
+    void recordInfected(int siteVersion, long users);
+}
@@ -0,0 +1,43 @@
+package src;
+
+import java.util.Map;
+
+/**
+ * The JMX view of a JmxGraphMetrics. Latencies are in nanoseconds and keyed by operation name.
+ */
+public interface GraphMetricsMXBean {
+    /**
+     * @return the number of calls of every operation
+     */
+    Map<String, Long> getOperationCounts();
+
+    /**
+     * @return the mean latency of every operation
+     */
+    Map<String, Long> getMeanLatencies();
+
+    /**
+     * @return the 99th percentile latency of every operation (to within a factor of two)
+     */
+    Map<String, Long> getP99Latencies();
+
+    /**
+     * @return the largest latency of every operation
+     */
+    Map<String, Long> getMaxLatencies();
+
+    /**
+     * @return the traversal, component and allocation counters, by name
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * @return the number of users infected with each site version, keyed by site version
+     */
+    Map<String, Long> getInfectedCounts();
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    void reset();
+}
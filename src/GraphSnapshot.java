@@ -0,0 +1,214 @@
+package src;
+
+import java.util.Arrays;
+
+/**
+ * A read-only, compressed sparse row (CSR) view of a user graph.
+ * Users are identified by dense indices 0..numUsers-1, ordered by userId. The student edges of user i are
+ * the targets at positions getStudentOffset(i)..getStudentOffset(i+1)-1, and likewise for teachers.
+ * Subclasses decide where the arrays live (on the heap, or in a memory-mapped file); the traversals
+ * in this class work the same on all of them.
+ */
+public abstract class GraphSnapshot {
+    // Each thread reuses its own VisitedSet, so a BFS costs the users it reaches rather than an array of all users
+    private final ThreadLocal<VisitedSet> visitedSets = new ThreadLocal<VisitedSet>();
+
+    /**
+     * @return the number of users in the snapshot
+     */
+    public abstract int getNumUsers();
+
+    /**
+     * @return the number of student (teacher -> student) edges in the snapshot
+     */
+    public abstract int getNumEdges();
+
+    /**
+     * @return the number of teacher (student -> teacher) edges in the snapshot. The same as getNumEdges unless
+     *         students or teachers were replaced on one side only (see User.setStudents and setTeachers).
+     */
+    public int getNumTeacherEdges() {
+        return getTeacherOffset(getNumUsers());
+    }
+
+    /**
+     * @param index the dense index of a user
+     * @return      the userId of that user
+     */
+    public abstract int getUserId(int index);
+
+    /**
+     * @param index the dense index of a user
+     * @return      the site version the user had when the snapshot was taken
+     */
+    public abstract int getSiteVersion(int index);
+
+    /**
+     * @param index a dense user index, 0 <= index <= numUsers
+     * @return      the position of that user's first student edge
+     */
+    public abstract int getStudentOffset(int index);
+
+    /**
+     * @param edge the position of a student edge
+     * @return     the dense index of the student at the end of it
+     */
+    public abstract int getStudentTarget(int edge);
+
+    /**
+     * @param index a dense user index, 0 <= index <= numUsers
+     * @return      the position of that user's first teacher edge
+     */
+    public abstract int getTeacherOffset(int index);
+
+    /**
+     * @param edge the position of a teacher edge
+     * @return     the dense index of the teacher at the end of it
+     */
+    public abstract int getTeacherTarget(int edge);
+
+    /**
+     * @param userId the userId to look up
+     * @return       the dense index of the user, or -1 if the user is not in the snapshot
+     */
+    public int indexOf(int userId) {
+        int lo = 0;
+        int hi = getNumUsers() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int midId = getUserId(mid);
+            if (midId < userId)
+                lo = mid + 1;
+            else if (midId > userId)
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    /**
+     * @param index the dense index of a user
+     * @return      the number of students of that user
+     */
+    public int getNumStudents(int index) {
+        return getStudentOffset(index + 1) - getStudentOffset(index);
+    }
+
+    /**
+     * @param index the dense index of a user
+     * @param i     which student to get, 0 <= i < getNumStudents(index)
+     * @return      the dense index of the i-th student
+     */
+    public int getStudent(int index, int i) {
+        return getStudentTarget(getStudentOffset(index) + i);
+    }
+
+    /**
+     * @param index the dense index of a user
+     * @return      the number of teachers of that user
+     */
+    public int getNumTeachers(int index) {
+        return getTeacherOffset(index + 1) - getTeacherOffset(index);
+    }
+
+    /**
+     * @param index the dense index of a user
+     * @param i     which teacher to get, 0 <= i < getNumTeachers(index)
+     * @return      the dense index of the i-th teacher
+     */
+    public int getTeacher(int index, int i) {
+        return getTeacherTarget(getTeacherOffset(index) + i);
+    }
+
+    /**
+     * Does a breadth-first search from the passed-in user, following both student and teacher edges.
+     * Stops as soon as limit users have been reached.
+     * @param source the dense index of the user to start from
+     * @param limit  the maximum number of users to return
+     * @return       the dense indices of the reached users, in BFS order
+     */
+    public int[] bfs(int source, int limit) {
+        int numUsers = getNumUsers();
+        int max = Math.min(limit, numUsers);
+        if (max <= 0)
+            return new int[0];
+        VisitedSet visited = visitedSets.get();
+        if (visited == null) {
+            visited = new VisitedSet(numUsers);
+            visitedSets.set(visited);
+        }
+        visited.clear(numUsers);
+        // The output doubles as the BFS queue, since users are dequeued in the order they are found.
+        int[] queue = new int[max];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = source;
+        visited.add(source);
+        while (head < tail && tail < max) {
+            int u = queue[head++];
+            for (int e = getStudentOffset(u); e < getStudentOffset(u + 1) && tail < max; e++) {
+                int v = getStudentTarget(e);
+                if (visited.add(v))
+                    queue[tail++] = v;
+            }
+            for (int e = getTeacherOffset(u); e < getTeacherOffset(u + 1) && tail < max; e++) {
+                int v = getTeacherTarget(e);
+                if (visited.add(v))
+                    queue[tail++] = v;
+            }
+        }
+        return tail == max ? queue : Arrays.copyOf(queue, tail);
+    }
+
+    /**
+     * Labels every user with the connected component it belongs to. Component labels are dense
+     * (0..numComponents-1), numbered in order of each component's smallest user index.
+     * Users are unioned along both student and teacher edges rather than searched from, since a BFS from a user
+     * would miss a teacher that doesn't list the user as a student (see User.setStudents and setTeachers).
+     * @return an array mapping dense user indices to component labels
+     */
+    public int[] getComponentLabels() {
+        int numUsers = getNumUsers();
+        int[] parent = new int[numUsers];
+        for (int i = 0; i < numUsers; i++)
+            parent[i] = i;
+        for (int u = 0; u < numUsers; u++) {
+            for (int e = getStudentOffset(u); e < getStudentOffset(u + 1); e++)
+                union(parent, u, getStudentTarget(e));
+            for (int e = getTeacherOffset(u); e < getTeacherOffset(u + 1); e++)
+                union(parent, u, getTeacherTarget(e));
+        }
+        // Every root is the smallest index of its component, so it is labeled before the rest of it
+        int[] labels = new int[numUsers];
+        int numComponents = 0;
+        for (int i = 0; i < numUsers; i++) {
+            int root = find(parent, i);
+            labels[i] = root == i ? numComponents++ : labels[root];
+        }
+        return labels;
+    }
+
+    /**
+     * Merges the components of a and b, linking the larger root under the smaller one.
+     */
+    private static void union(int[] parent, int a, int b) {
+        a = find(parent, a);
+        b = find(parent, b);
+        if (a < b)
+            parent[b] = a;
+        else if (b < a)
+            parent[a] = b;
+    }
+
+    /**
+     * Finds the root of x, halving the path to it along the way.
+     */
+    private static int find(int[] parent, int x) {
+        while (parent[x] != x) {
+            parent[x] = parent[parent[x]];
+            x = parent[x];
+        }
+        return x;
+    }
+}
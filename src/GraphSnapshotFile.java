@@ -0,0 +1,159 @@
+package src;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads and writes graph snapshots in a versioned binary format, so a graph can be reopened after a restart
+ * without rebuilding it. All values are little-endian 32-bit ints:
+ *
+ *   magic ("KUGS"), formatVersion, numUsers, numEdges, numTeacherEdges,
+ *   userIds[numUsers] (ascending), siteVersions[numUsers],
+ *   studentOffsets[numUsers + 1], studentTargets[numEdges],
+ *   teacherOffsets[numUsers + 1], teacherTargets[numTeacherEdges]
+ *
+ * which is exactly the CSR layout of GraphSnapshot, so a reader can map the sections straight into memory.
+ * The two sides of the adjacency are counted separately, since User.setStudents and setTeachers can make them
+ * differ. Version 1 files have no numTeacherEdges (it is always numEdges) and can still be opened.
+ */
+public class GraphSnapshotFile {
+    public static final int MAGIC = 0x4B554753;
+    public static final int FORMAT_VERSION = 2;
+    private static final int HEADER_BYTES = 20;
+    private static final int V1_HEADER_BYTES = 16;
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private GraphSnapshotFile() {
+
+    }
+
+    /**
+     * Writes a snapshot to a file, replacing anything already in it.
+     * @param snapshot the snapshot to write
+     * @param file     the file to write to
+     * @throws IOException if the file can't be written
+     */
+    public static void write(GraphSnapshot snapshot, File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            int numUsers = snapshot.getNumUsers();
+            int numEdges = snapshot.getNumEdges();
+            int numTeacherEdges = snapshot.getNumTeacherEdges();
+            buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(numUsers).putInt(numEdges).putInt(numTeacherEdges);
+            for (int i = 0; i < numUsers; i++)
+                put(channel, buffer, snapshot.getUserId(i));
+            for (int i = 0; i < numUsers; i++)
+                put(channel, buffer, snapshot.getSiteVersion(i));
+            for (int i = 0; i <= numUsers; i++)
+                put(channel, buffer, snapshot.getStudentOffset(i));
+            for (int e = 0; e < numEdges; e++)
+                put(channel, buffer, snapshot.getStudentTarget(e));
+            for (int i = 0; i <= numUsers; i++)
+                put(channel, buffer, snapshot.getTeacherOffset(i));
+            for (int e = 0; e < numTeacherEdges; e++)
+                put(channel, buffer, snapshot.getTeacherTarget(e));
+            flush(channel, buffer);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Opens a snapshot file by memory-mapping it. Nothing is read up front beyond the header; the pages of the
+     * file are loaded by the OS as traversals touch them. The header and the ends of the offset sections are
+     * checked; the offsets and targets in between are trusted.
+     * @param file the file to open
+     * @return     a read-only snapshot backed by the file
+     * @throws IOException if the file can't be read or is not a snapshot in a supported format
+     */
+    public static MappedGraphSnapshot open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            if (channel.size() < V1_HEADER_BYTES)
+                throw new IOException(file + " is too short to be a graph snapshot");
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    Math.min(channel.size(), HEADER_BYTES)).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != MAGIC)
+                throw new IOException(file + " is not a graph snapshot");
+            int version = header.getInt();
+            if (version != FORMAT_VERSION && version != 1)
+                throw new IOException(file + " has unsupported snapshot format version " + version);
+            int headerBytes = version == 1 ? V1_HEADER_BYTES : HEADER_BYTES;
+            if (channel.size() < headerBytes)
+                throw new IOException(file + " is too short to be a graph snapshot");
+            int numUsers = header.getInt();
+            int numEdges = header.getInt();
+            int numTeacherEdges = version == 1 ? numEdges : header.getInt();
+            if (numUsers < 0 || numEdges < 0 || numTeacherEdges < 0)
+                throw new IOException(file + " has a negative count in its header");
+            long expected = headerBytes + 4L * (4L * numUsers + 2 + numEdges + (long) numTeacherEdges);
+            if (channel.size() != expected)
+                throw new IOException(file + " should be " + expected + " bytes long, but is " + channel.size());
+
+            long position = headerBytes;
+            IntBuffer userIds = map(channel, position, numUsers);
+            position += 4L * numUsers;
+            IntBuffer siteVersions = map(channel, position, numUsers);
+            position += 4L * numUsers;
+            IntBuffer studentOffsets = map(channel, position, numUsers + 1);
+            position += 4L * (numUsers + 1);
+            IntBuffer studentTargets = map(channel, position, numEdges);
+            position += 4L * numEdges;
+            IntBuffer teacherOffsets = map(channel, position, numUsers + 1);
+            position += 4L * (numUsers + 1);
+            IntBuffer teacherTargets = map(channel, position, numTeacherEdges);
+            checkOffsets(file, studentOffsets, numUsers, numEdges);
+            checkOffsets(file, teacherOffsets, numUsers, numTeacherEdges);
+            return new MappedGraphSnapshot(userIds, siteVersions, studentOffsets, studentTargets,
+                    teacherOffsets, teacherTargets);
+        } finally {
+            // The mappings stay valid after the channel is closed
+            channel.close();
+        }
+    }
+
+    /**
+     * Checks that an offset section starts at 0 and ends at the number of edges it covers.
+     */
+    private static void checkOffsets(File file, IntBuffer offsets, int numUsers, int numEdges) throws IOException {
+        if (offsets.get(0) != 0 || offsets.get(numUsers) != numEdges)
+            throw new IOException(file + " has edge offsets that don't cover its " + numEdges + " edges");
+    }
+
+    /**
+     * Maps count ints starting at position as an IntBuffer.
+     */
+    private static IntBuffer map(FileChannel channel, long position, int count) throws IOException {
+        long bytes = 4L * count;
+        if (bytes > Integer.MAX_VALUE)
+            throw new IOException("Snapshot section of " + count + " ints is too large to map");
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, bytes)
+                .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+
+    /**
+     * Puts an int into the buffer, writing the buffer out first if it is full.
+     */
+    private static void put(FileChannel channel, ByteBuffer buffer, int value) throws IOException {
+        if (buffer.remaining() < 4)
+            flush(channel, buffer);
+        buffer.putInt(value);
+    }
+
+    /**
+     * Writes out everything in the buffer and clears it.
+     */
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+}
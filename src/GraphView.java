@@ -2,63 +2,90 @@ package src;
 
 import edu.uci.ics.jung.algorithms.layout.Layout;
 import edu.uci.ics.jung.algorithms.layout.SpringLayout2;
+import edu.uci.ics.jung.algorithms.layout.StaticLayout;
 import edu.uci.ics.jung.graph.*;
 import edu.uci.ics.jung.visualization.GraphZoomScrollPane;
 import edu.uci.ics.jung.visualization.VisualizationViewer;
+import edu.uci.ics.jung.visualization.control.GraphMouseListener;
 import edu.uci.ics.jung.visualization.decorators.ToStringLabeller;
 import edu.uci.ics.jung.visualization.renderers.Renderer;
 import org.apache.commons.collections15.Transformer;
+import org.apache.commons.collections15.functors.MapTransformer;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.MouseEvent;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Point2D;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Created by mattlim on 11/17/14.
  * Class for visualizing UserGraph.
+ * Small graphs are shown user by user. Big graphs are shown level by level: the component overview has one
+ * node per tree, sized by its number of users and colored by the fraction of it that is infected, and clicking a
+ * node drills down into that component. Layouts are computed off the Swing event thread and cached per component.
  */
 public class GraphView {
+    // The most trees shown in the component overview (the biggest ones)
+    static final int MAX_OVERVIEW_COMPONENTS = 2000;
+    // The most users shown when drilling down into a component (the ones nearest its source, in BFS order)
+    static final int MAX_DRILL_DOWN_USERS = 2000;
+    // Edge labels are only drawn when there are at most this many edges, since they are redrawn on every repaint
+    private static final int MAX_LABELED_EDGES = 500;
+    // How long the spring layout of a component is allowed to run before the current positions are used
+    private static final long LAYOUT_BUDGET_MILLIS = 2000;
+    private static final Dimension VIEW_SIZE = new Dimension(750, 750);
 
-    public GraphView() {
+    private UserGraph userGraph;
+    // Drill-down layouts, by the source id of the component
+    private final Map<Integer, ComponentLayout> layoutCache =
+            Collections.synchronizedMap(new HashMap<Integer, ComponentLayout>());
 
+    /**
+     * Makes a GraphView for the passed-in graph.
+     * @param userGraph the graph to show
+     */
+    public GraphView(UserGraph userGraph) {
+        this.userGraph = userGraph;
     }
 
     /**
      * Get a directed graph that contains the connected components of all the passed-in users.
-     * @param users a list of users
-     * @return      the directed graph
+     * @param users   a list of users
+     * @param visited an empty VisitedSet to keep track of the traversal with
+     * @return        the directed graph
      */
-    private DirectedGraph<Integer, String> getGraph(ArrayList<User> users) {
+    private DirectedGraph<Integer, Edge> getGraph(ArrayList<User> users, VisitedSet visited) {
         Deque<User> queue = new ArrayDeque<User>();
-        DirectedGraph<Integer, String> directedGraph = new DirectedSparseMultigraph<Integer, String>();
+        DirectedGraph<Integer, Edge> directedGraph = new DirectedSparseMultigraph<Integer, Edge>();
         for (User user : users) {
-            if (user.color == User.Color.WHITE)
+            if (visited.add(user.index)) {
                 queue.addLast(user);
+                directedGraph.addVertex(user.getId());
+            }
             while (!queue.isEmpty()) {
                 User u = queue.pollFirst();
-                if (user.color == User.Color.WHITE)
-                    directedGraph.addVertex(u.getId());
+                // Every edge is a student edge of its teacher, so following student edges adds each edge once
                 for (User v : u.getStudents()) {
                     directedGraph.addVertex(v.getId());
-                    directedGraph.addEdge(u.getId() + "/" + u.getSiteVersion() + "-" + v.getId() + "/" + v.getSiteVersion(),
-                            u.getId(), v.getId());
-                    if (v.color == User.Color.WHITE) {
-                        v.color = User.Color.GREY;
+                    directedGraph.addEdge(new Edge(u, v), u.getId(), v.getId());
+                    if (visited.add(v.index))
                         queue.addLast(v);
-                    }
                 }
                 for (User v : u.getTeachers()) {
                     directedGraph.addVertex(v.getId());
-                    directedGraph.addEdge(v.getId() + "/" + v.getSiteVersion() + "-" + u.getId() + "/" + u.getSiteVersion(),
-                            v.getId(), u.getId());
-                    if (v.color == User.Color.WHITE) {
-                        v.color = User.Color.GREY;
+                    if (visited.add(v.index))
                         queue.addLast(v);
-                    }
                 }
-                u.color = User.Color.BLACK;
             }
         }
         return directedGraph;
@@ -66,43 +93,325 @@ public class GraphView {
 
     /**
      * Get a forest that contains the connected components of all the passed-in users.
-     * @param users a list of users
-     * @return      the directed graph
+     * @param users   a list of users
+     * @param visited an empty VisitedSet to keep track of the traversal with
+     * @return        the directed graph
      */
-    private Forest<Integer, String> getForest(ArrayList<User> users) {
-        DirectedGraph<Integer, String> directedGraph = getGraph(users);
-        Forest<Integer, String> delegateForest = new DelegateForest<Integer, String>(directedGraph);
+    private Forest<Integer, Edge> getForest(ArrayList<User> users, VisitedSet visited) {
+        DirectedGraph<Integer, Edge> directedGraph = getGraph(users, visited);
+        Forest<Integer, Edge> delegateForest = new DelegateForest<Integer, Edge>(directedGraph);
         return delegateForest;
     }
 
     /**
-     * Show the graph/forest that contains the connected components of all the passed-in users.
-     * @param users           a list of users
-     * @param name            the name of the graph
-     * @param infectedUserIds a list of infected user ids. These users will be colored green.
+     * Show the graph/forest that contains the connected components of all the passed-in users. The graph is
+     * built off the event thread, so only pass in users whose components are small enough to lay out user by
+     * user (see MAX_DRILL_DOWN_USERS); bigger ones belong in showOverview or showComponent.
+     * @param users         a list of users
+     * @param name          the name of the graph
+     * @param infectedUsers the set of infected users. These users will be colored green.
+     */
+    protected void showGraph(final ArrayList<User> users, final String name, final InfectedSet infectedUsers) {
+        new SwingWorker<Layout<Integer, Edge>, Void>() {
+            protected Layout<Integer, Edge> doInBackground() {
+                Forest<Integer, Edge> forest = getForest(users, userGraph.acquireVisitedSet());
+                return new SpringLayout2<Integer, Edge>(forest);
+            }
+
+            protected void done() {
+                Layout<Integer, Edge> layout = getResult(this);
+                if (layout != null)
+                    showFrame(name, getUserViewer(layout, infectedUsers), JFrame.EXIT_ON_CLOSE);
+            }
+        }.execute();
+    }
+
+    /**
+     * Show the component overview: one node per tree (the biggest MAX_OVERVIEW_COMPONENTS of them), sized by its
+     * number of users and colored from red (nothing infected) to green (all infected). Clicking a node drills down
+     * into its component. The infected fractions and the layout are computed off the event thread.
+     * @param trees         the trees of the graph, sorted in descending order of size
+     * @param name          the name of the graph
+     * @param infectedUsers the set of infected users
+     */
+    protected void showOverview(final List<UserTree> trees, final String name, final InfectedSet infectedUsers) {
+        new SwingWorker<Overview, Void>() {
+            protected Overview doInBackground() {
+                return new Overview(trees.subList(0, Math.min(trees.size(), MAX_OVERVIEW_COMPONENTS)));
+            }
+
+            protected void done() {
+                Overview overview = getResult(this);
+                if (overview == null)
+                    return;
+                String title = name + " (" + overview.graph.getVertexCount() + " of " + trees.size() + " components)";
+                showFrame(title, getOverviewViewer(overview, infectedUsers), JFrame.EXIT_ON_CLOSE);
+            }
+        }.execute();
+    }
+
+    /**
+     * Show one component, drilled down to user level. At most MAX_DRILL_DOWN_USERS users are shown. The layout is
+     * computed off the event thread the first time, and reused after that as long as the component keeps its size.
+     * @param tree          the tree of the component
+     * @param infectedUsers the set of infected users. These users will be colored green.
+     */
+    protected void showComponent(UserTree tree, InfectedSet infectedUsers) {
+        showComponent(tree.getSourceId(), tree.getNumUsers(), infectedUsers, JFrame.DISPOSE_ON_CLOSE);
+    }
+
+    /**
+     * Show the component of a user on its own, drilled down to user level around that user. See
+     * showComponent(UserTree, InfectedSet).
+     * @param sourceId      the userId of the user. The users nearest it are shown.
+     * @param numUsers      the number of users in the user's component
+     * @param infectedUsers the set of infected users. These users will be colored green.
+     */
+    protected void showComponent(int sourceId, int numUsers, InfectedSet infectedUsers) {
+        showComponent(sourceId, numUsers, infectedUsers, JFrame.EXIT_ON_CLOSE);
+    }
+
+    /**
+     * Show the component of a user, drilled down to user level around that user.
+     * @param sourceId       the userId of the user. The users nearest it are shown.
+     * @param numUsers       the number of users in the user's component
+     * @param infectedUsers  the set of infected users. These users will be colored green.
+     * @param closeOperation what closing the frame does
      */
-    protected void showGraph(ArrayList<User> users, String name, final ArrayList<Integer> infectedUserIds) {
-        Forest<Integer, String> forest = getForest(users);
-        Layout<Integer, String> layout = new SpringLayout2<Integer, String>(forest);
-        VisualizationViewer<Integer, String> vv =
-                new VisualizationViewer<Integer, String>(layout);
+    private void showComponent(final int sourceId, final int numUsers, final InfectedSet infectedUsers,
+                               final int closeOperation) {
+        new SwingWorker<ComponentLayout, Void>() {
+            protected ComponentLayout doInBackground() {
+                ComponentLayout cached = layoutCache.get(sourceId);
+                if (cached != null && cached.numUsers == numUsers)
+                    return cached;
+                ComponentLayout layout = new ComponentLayout(userGraph.getUser(sourceId), numUsers);
+                layoutCache.put(sourceId, layout);
+                return layout;
+            }
+
+            protected void done() {
+                ComponentLayout layout = getResult(this);
+                if (layout == null)
+                    return;
+                Layout<Integer, Edge> staticLayout = new StaticLayout<Integer, Edge>(layout.graph,
+                        MapTransformer.getInstance(layout.positions), VIEW_SIZE);
+                String title = "Component of user #" + sourceId + " (" + layout.graph.getVertexCount()
+                        + " of " + numUsers + " users)";
+                showFrame(title, getUserViewer(staticLayout, infectedUsers), closeOperation);
+            }
+        }.execute();
+    }
+
+    /**
+     * Makes a viewer that shows users, colored by whether they are infected, with edge labels if there are few
+     * enough edges.
+     * @param layout        the layout of the users
+     * @param infectedUsers the set of infected users. These users will be colored green. Users removed from the
+     *                      graph since the layout was made are colored gray.
+     * @return              the viewer
+     */
+    private VisualizationViewer<Integer, Edge> getUserViewer(Layout<Integer, Edge> layout,
+                                                             final InfectedSet infectedUsers) {
+        VisualizationViewer<Integer, Edge> vv =
+                new VisualizationViewer<Integer, Edge>(layout);
         Transformer<Integer,Paint> vertexColor = new Transformer<Integer,Paint>() {
             public Paint transform(Integer i) {
-                if(infectedUserIds.contains(i))
+                User user = userGraph.getUser(i);
+                if (user == null)
+                    return Color.LIGHT_GRAY;
+                if(infectedUsers.contains(user.index))
                     return Color.GREEN;
                 return Color.RED;
             }
         };
         vv.getRenderContext().setVertexFillPaintTransformer(vertexColor);
-        vv.setPreferredSize(new Dimension(750, 750)); //Sets the viewing area size
-        vv.getRenderContext().setVertexLabelTransformer(new ToStringLabeller());
-        vv.getRenderContext().setEdgeLabelTransformer(new ToStringLabeller());
+        vv.setPreferredSize(VIEW_SIZE); //Sets the viewing area size
+        vv.getRenderContext().setVertexLabelTransformer(new ToStringLabeller<Integer>());
+        if (layout.getGraph().getEdgeCount() <= MAX_LABELED_EDGES)
+            vv.getRenderContext().setEdgeLabelTransformer(new ToStringLabeller<Edge>());
         vv.getRenderer().getVertexLabelRenderer().setPosition(Renderer.VertexLabel.Position.CNTR);
+        return vv;
+    }
+
+    /**
+     * Makes a viewer for the component overview.
+     * @param overview      the overview to show
+     * @param infectedUsers the set of infected users, for drilling down
+     * @return              the viewer
+     */
+    private VisualizationViewer<UserTree, Integer> getOverviewViewer(final Overview overview,
+                                                                     final InfectedSet infectedUsers) {
+        Layout<UserTree, Integer> layout = new StaticLayout<UserTree, Integer>(overview.graph,
+                MapTransformer.getInstance(overview.positions), overview.size);
+        VisualizationViewer<UserTree, Integer> vv = new VisualizationViewer<UserTree, Integer>(layout);
+        vv.getRenderContext().setVertexFillPaintTransformer(new Transformer<UserTree, Paint>() {
+            public Paint transform(UserTree tree) {
+                float fraction = overview.infected.get(tree) / (float) tree.getNumUsers();
+                return new Color(1 - fraction, fraction, 0);
+            }
+        });
+        vv.getRenderContext().setVertexShapeTransformer(new Transformer<UserTree, Shape>() {
+            public Shape transform(UserTree tree) {
+                double radius = getRadius(tree);
+                return new Ellipse2D.Double(-radius, -radius, 2 * radius, 2 * radius);
+            }
+        });
+        vv.getRenderContext().setVertexLabelTransformer(new Transformer<UserTree, String>() {
+            public String transform(UserTree tree) {
+                return String.valueOf(tree.getNumUsers());
+            }
+        });
+        vv.setVertexToolTipTransformer(new Transformer<UserTree, String>() {
+            public String transform(UserTree tree) {
+                return "User #" + tree.getSourceId() + "'s component: " + tree.getNumUsers() + " users, "
+                        + overview.infected.get(tree) + " infected";
+            }
+        });
+        vv.addGraphMouseListener(new GraphMouseListener<UserTree>() {
+            public void graphClicked(UserTree tree, MouseEvent me) {
+                showComponent(tree, infectedUsers);
+            }
+
+            public void graphPressed(UserTree tree, MouseEvent me) {
+            }
+
+            public void graphReleased(UserTree tree, MouseEvent me) {
+            }
+        });
+        vv.setPreferredSize(VIEW_SIZE);
+        vv.getRenderer().getVertexLabelRenderer().setPosition(Renderer.VertexLabel.Position.CNTR);
+        return vv;
+    }
+
+    /**
+     * Puts a viewer in a frame and shows it.
+     * @param name           the title of the frame
+     * @param vv             the viewer
+     * @param closeOperation what closing the frame does
+     */
+    private void showFrame(String name, VisualizationViewer<?, ?> vv, int closeOperation) {
         JFrame frame = new JFrame(name);
         GraphZoomScrollPane scrollPane = new GraphZoomScrollPane(vv);
-        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        frame.setDefaultCloseOperation(closeOperation);
         frame.getContentPane().add(scrollPane);
         frame.pack();
         frame.setVisible(true);
     }
+
+    /**
+     * @return the radius of a tree's node in the component overview. The area of the node grows with the number of
+     *         users in the tree.
+     */
+    private static double getRadius(UserTree tree) {
+        return 5 + 2 * Math.sqrt(tree.getNumUsers());
+    }
+
+    /**
+     * Gets the result of a finished SwingWorker, showing an error dialog if it failed.
+     * @return the result, or null if the worker failed
+     */
+    private static <T> T getResult(SwingWorker<T, Void> worker) {
+        try {
+            return worker.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            JOptionPane.showMessageDialog(null, "Could not lay out the graph: " + e.getCause(), "Graph View",
+                    JOptionPane.ERROR_MESSAGE);
+            return null;
+        }
+    }
+
+    /**
+     * An edge from a teacher to a student. The label is only built when the edge is drawn, so it always shows
+     * the users' current site versions.
+     */
+    private static class Edge {
+        private final User teacher;
+        private final User student;
+
+        Edge(User teacher, User student) {
+            this.teacher = teacher;
+            this.student = student;
+        }
+
+        public String toString() {
+            return teacher.getId() + "/" + teacher.getSiteVersion() + "-" + student.getId() + "/" + student.getSiteVersion();
+        }
+    }
+
+    /**
+     * The component overview: a graph with a node per tree (and no edges, since trees are disconnected), with
+     * the trees packed into rows, biggest first.
+     */
+    private class Overview {
+        final Graph<UserTree, Integer> graph = new DirectedSparseMultigraph<UserTree, Integer>();
+        final Map<UserTree, Point2D> positions = new HashMap<UserTree, Point2D>();
+        final Map<UserTree, Integer> infected = new HashMap<UserTree, Integer>();
+        final Dimension size;
+
+        Overview(List<UserTree> trees) {
+            double area = 0;
+            for (UserTree tree : trees) {
+                double diameter = 2 * getRadius(tree);
+                area += diameter * diameter;
+            }
+            double rowWidth = Math.max(Math.sqrt(area), trees.isEmpty() ? 0 : 2 * getRadius(trees.get(0)));
+            double x = 0, y = 0, rowHeight = 0, width = 0;
+            for (UserTree tree : trees) {
+                double diameter = 2 * getRadius(tree) + 4;
+                if (x > 0 && x + diameter > rowWidth) {
+                    x = 0;
+                    y += rowHeight;
+                    rowHeight = 0;
+                }
+                graph.addVertex(tree);
+                positions.put(tree, new Point2D.Double(x + diameter / 2, y + diameter / 2));
+                infected.put(tree, userGraph.countInfected(tree));
+                x += diameter;
+                rowHeight = Math.max(rowHeight, diameter);
+                width = Math.max(width, x);
+            }
+            size = new Dimension((int) Math.ceil(width), (int) Math.ceil(y + rowHeight));
+        }
+    }
+
+    /**
+     * A component drilled down to user level, laid out with a spring layout: the users nearest the source (in
+     * BFS order), the student edges between them, and where each of them goes.
+     */
+    private static class ComponentLayout {
+        final DirectedGraph<Integer, Edge> graph = new DirectedSparseMultigraph<Integer, Edge>();
+        final Map<Integer, Point2D> positions = new HashMap<Integer, Point2D>();
+        final int numUsers;
+
+        ComponentLayout(User source, int numUsers) {
+            this.numUsers = numUsers;
+            HashSet<Integer> shown = new HashSet<Integer>();
+            ArrayList<User> users = new ArrayList<User>();
+            ComponentIterator it = new ComponentIterator(source.graph, source);
+            while (users.size() < MAX_DRILL_DOWN_USERS && it.hasNext()) {
+                User u = it.next();
+                users.add(u);
+                shown.add(u.getId());
+                graph.addVertex(u.getId());
+            }
+            for (User u : users) {
+                for (User v : u.getStudents()) {
+                    if (shown.contains(v.getId()))
+                        graph.addEdge(new Edge(u, v), u.getId(), v.getId());
+                }
+            }
+
+            SpringLayout2<Integer, Edge> layout = new SpringLayout2<Integer, Edge>(graph);
+            layout.setSize(VIEW_SIZE);
+            long deadline = System.currentTimeMillis() + LAYOUT_BUDGET_MILLIS;
+            while (!layout.done() && System.currentTimeMillis() < deadline)
+                layout.step();
+            for (Integer id : graph.getVertices())
+                positions.put(id, new Point2D.Double(layout.getX(id), layout.getY(id)));
+        }
+    }
 }
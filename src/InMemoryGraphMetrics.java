@@ -0,0 +1,113 @@
+package src;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A GraphMetrics that keeps everything in memory: a LatencyHistogram per operation, and running totals of the
+ * users and edges visited, components scanned, objects allocated and users infected. Safe to share between
+ * threads and between graphs.
+ */
+public class InMemoryGraphMetrics implements GraphMetrics {
+    private final ConcurrentMap<String, LatencyHistogram> latencies = new ConcurrentHashMap<String, LatencyHistogram>();
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentMap<Integer, AtomicLong> infected = new ConcurrentHashMap<Integer, AtomicLong>();
+
+    public boolean isEnabled() {
+        return true;
+    }
+
+    public void recordOperation(String operation, long nanos) {
+        LatencyHistogram histogram = latencies.get(operation);
+        if (histogram == null) {
+            LatencyHistogram existing = latencies.putIfAbsent(operation, histogram = new LatencyHistogram());
+            if (existing != null)
+                histogram = existing;
+        }
+        histogram.record(nanos);
+    }
+
+    public void recordTraversal(String operation, long usersVisited, long edgesVisited) {
+        add(operation + ".usersVisited", usersVisited);
+        add(operation + ".edgesVisited", edgesVisited);
+    }
+
+    public void recordComponentsScanned(String operation, long components) {
+        add(operation + ".componentsScanned", components);
+    }
+
+    public void recordAllocation(String what, long count) {
+        add("allocated." + what, count);
+    }
+
+    public void recordInfected(int siteVersion, long users) {
+        AtomicLong total = infected.get(siteVersion);
+        if (total == null) {
+            AtomicLong existing = infected.putIfAbsent(siteVersion, total = new AtomicLong());
+            if (existing != null)
+                total = existing;
+        }
+        total.addAndGet(users);
+    }
+
+    /**
+     * @param operation the name of an operation
+     * @return          the latencies recorded for that operation, or null if it was never recorded
+     */
+    public LatencyHistogram getLatencies(String operation) {
+        return latencies.get(operation);
+    }
+
+    /**
+     * @return the latencies of every operation recorded so far, by operation name
+     */
+    public Map<String, LatencyHistogram> getAllLatencies() {
+        return new TreeMap<String, LatencyHistogram>(latencies);
+    }
+
+    /**
+     * @return the value of every counter so far, by name (e.g. "limitedInfection.edgesVisited",
+     *         "allocated.UserTree")
+     */
+    public Map<String, Long> getCounters() {
+        TreeMap<String, Long> values = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet())
+            values.put(entry.getKey(), entry.getValue().get());
+        return values;
+    }
+
+    /**
+     * @return the number of users infected so far with each site version
+     */
+    public Map<Integer, Long> getInfectedCountsByVersion() {
+        TreeMap<Integer, Long> values = new TreeMap<Integer, Long>();
+        for (Map.Entry<Integer, AtomicLong> entry : infected.entrySet())
+            values.put(entry.getKey(), entry.getValue().get());
+        return values;
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    public void reset() {
+        latencies.clear();
+        counters.clear();
+        infected.clear();
+    }
+
+    /**
+     * Adds delta to the named counter.
+     */
+    private void add(String name, long delta) {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            AtomicLong existing = counters.putIfAbsent(name, counter = new AtomicLong());
+            if (existing != null)
+                counter = existing;
+        }
+        counter.addAndGet(delta);
+    }
+}
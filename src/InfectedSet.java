@@ -0,0 +1,115 @@
+package src;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * The set of infected users of a UserGraph, keyed by the users' dense indices.
+ * Membership is a single bit per user, so lookups are O(1) without boxing, infecting the same user again
+ * doesn't grow the set, and iterating over all infected users is a scan over words rather than users.
+ * Users are also tracked per site version: a user counts towards the version it was infected with most recently.
+ */
+public class InfectedSet {
+    private final BitSet infected = new BitSet();
+    private final HashMap<Integer, BitSet> byVersion = new HashMap<Integer, BitSet>();
+    // The site version each infected user was infected with
+    private int[] versions = new int[16];
+
+    /**
+     * Marks a user as infected with the passed-in site version.
+     * @param index       the dense index of the user
+     * @param siteVersion the site version the user was infected with
+     */
+    public synchronized void add(int index, int siteVersion) {
+        if (infected.get(index)) {
+            if (versions[index] == siteVersion)
+                return;
+            byVersion.get(versions[index]).clear(index);
+        }
+        infected.set(index);
+        if (index >= versions.length)
+            versions = Arrays.copyOf(versions, Math.max(index + 1, versions.length * 2));
+        versions[index] = siteVersion;
+        BitSet versionSet = byVersion.get(siteVersion);
+        if (versionSet == null) {
+            versionSet = new BitSet();
+            byVersion.put(siteVersion, versionSet);
+        }
+        versionSet.set(index);
+    }
+
+    /**
+     * @param index the dense index of a user
+     * @return      true if the user is infected, false otherwise
+     */
+    public synchronized boolean contains(int index) {
+        return infected.get(index);
+    }
+
+    /**
+     * @param index the dense index of a user
+     * @return      the site version the user was infected with, or -1 if it isn't infected
+     */
+    public synchronized int getSiteVersion(int index) {
+        return infected.get(index) ? versions[index] : -1;
+    }
+
+    /**
+     * @return the number of infected users
+     */
+    public synchronized int cardinality() {
+        return infected.cardinality();
+    }
+
+    /**
+     * @param siteVersion a site version
+     * @return            the number of users infected with that site version
+     */
+    public synchronized int cardinality(int siteVersion) {
+        BitSet versionSet = byVersion.get(siteVersion);
+        return versionSet == null ? 0 : versionSet.cardinality();
+    }
+
+    /**
+     * Iterates over the infected users, e.g.
+     * for (int i = set.nextInfected(0); i >= 0; i = set.nextInfected(i + 1)) { ... }
+     * @param fromIndex the dense index to start looking from
+     * @return          the smallest index >= fromIndex of an infected user, or -1 if there is none
+     */
+    public synchronized int nextInfected(int fromIndex) {
+        return infected.nextSetBit(fromIndex);
+    }
+
+    /**
+     * Forgets a user, e.g. because it was removed from the graph.
+     * @param index the dense index of the user
+     */
+    public synchronized void remove(int index) {
+        if (!infected.get(index))
+            return;
+        infected.clear(index);
+        byVersion.get(versions[index]).clear(index);
+    }
+
+    /**
+     * Moves a user to another dense index, which must not be infected, e.g. when a graph swap-removes users.
+     * @param from the current index of the user
+     * @param to   the new index of the user
+     */
+    public synchronized void move(int from, int to) {
+        if (!infected.get(from))
+            return;
+        int siteVersion = versions[from];
+        remove(from);
+        add(to, siteVersion);
+    }
+
+    /**
+     * Forgets all infected users.
+     */
+    public synchronized void clear() {
+        infected.clear();
+        byVersion.clear();
+    }
+}
@@ -0,0 +1,53 @@
+package src;
+
+import java.util.ArrayList;
+
+/**
+ * Represents a planned infection: the trees that should be infected to get as close as possible
+ * to some target number of users.
+ */
+public class InfectionPlan {
+    private ArrayList<UserTree> trees;
+    private int numUsers;
+    private int limit;
+
+    /**
+     * Construct an InfectionPlan.
+     * @param trees    the trees to infect
+     * @param numUsers the total number of users in the trees
+     * @param limit    the number of users the plan was asked to infect
+     */
+    public InfectionPlan(ArrayList<UserTree> trees, int numUsers, int limit) {
+        this.trees = trees;
+        this.numUsers = numUsers;
+        this.limit = limit;
+    }
+
+    /**
+     * @return the trees to infect
+     */
+    public ArrayList<UserTree> getTrees() {
+        return trees;
+    }
+
+    /**
+     * @return the number of users the plan infects
+     */
+    public int getNumUsers() {
+        return numUsers;
+    }
+
+    /**
+     * @return the number of users the plan was asked to infect
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return true if the plan infects exactly limit users, false otherwise
+     */
+    public boolean isExact() {
+        return numUsers == limit;
+    }
+}
@@ -0,0 +1,119 @@
+package src;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * A GraphMetrics that emits JDK Flight Recorder events, so graph operations show up next to GC pauses, lock
+ * contention etc. in a recording (e.g. java -XX:StartFlightRecording ...). The events are only built when JFR
+ * is recording them, so this is close to free otherwise.
+ */
+public class JfrGraphMetrics implements GraphMetrics {
+    public boolean isEnabled() {
+        return true;
+    }
+
+    public void recordOperation(String operation, long nanos) {
+        OperationEvent event = new OperationEvent();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.latency = nanos;
+            event.commit();
+        }
+    }
+
+    public void recordTraversal(String operation, long usersVisited, long edgesVisited) {
+        TraversalEvent event = new TraversalEvent();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.usersVisited = usersVisited;
+            event.edgesVisited = edgesVisited;
+            event.commit();
+        }
+    }
+
+    public void recordComponentsScanned(String operation, long components) {
+        ComponentsScannedEvent event = new ComponentsScannedEvent();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.components = components;
+            event.commit();
+        }
+    }
+
+    public void recordAllocation(String what, long count) {
+        AllocationEvent event = new AllocationEvent();
+        if (event.shouldCommit()) {
+            event.what = what;
+            event.count = count;
+            event.commit();
+        }
+    }
+
+    public void recordInfected(int siteVersion, long users) {
+        InfectionEvent event = new InfectionEvent();
+        if (event.shouldCommit()) {
+            event.siteVersion = siteVersion;
+            event.users = users;
+            event.commit();
+        }
+    }
+
+    @Name("src.GraphOperation")
+    @Label("Graph Operation")
+    @Category("User Graph")
+    @Description("One call of a UserGraph operation")
+    static class OperationEvent extends Event {
+        @Label("Operation")
+        String operation;
+        @Label("Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+    }
+
+    @Name("src.GraphTraversal")
+    @Label("Graph Traversal")
+    @Category("User Graph")
+    static class TraversalEvent extends Event {
+        @Label("Operation")
+        String operation;
+        @Label("Users Visited")
+        long usersVisited;
+        @Label("Edges Visited")
+        long edgesVisited;
+    }
+
+    @Name("src.GraphComponentsScanned")
+    @Label("Graph Components Scanned")
+    @Category("User Graph")
+    static class ComponentsScannedEvent extends Event {
+        @Label("Operation")
+        String operation;
+        @Label("Components")
+        long components;
+    }
+
+    @Name("src.GraphAllocation")
+    @Label("Graph Allocation")
+    @Category("User Graph")
+    static class AllocationEvent extends Event {
+        @Label("What")
+        String what;
+        @Label("Count")
+        long count;
+    }
+
+    @Name("src.GraphInfection")
+    @Label("Graph Infection")
+    @Category("User Graph")
+    static class InfectionEvent extends Event {
+        @Label("Site Version")
+        int siteVersion;
+        @Label("Users")
+        long users;
+    }
+}
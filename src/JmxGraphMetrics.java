@@ -0,0 +1,86 @@
+package src;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * An InMemoryGraphMetrics that can be looked at over JMX (e.g. with jconsole or VisualVM), as an MXBean named
+ * "src:type=GraphMetrics,name=..." on the platform MBean server.
+ */
+public class JmxGraphMetrics extends InMemoryGraphMetrics implements GraphMetricsMXBean {
+    private final ObjectName objectName;
+
+    /**
+     * Makes the metrics and registers them with the platform MBean server.
+     * @param name the name to register them under, to tell several graphs apart
+     * @throws IllegalStateException if the metrics can't be registered (e.g. the name is taken)
+     */
+    public JmxGraphMetrics(String name) {
+        try {
+            objectName = new ObjectName("src:type=GraphMetrics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException("Can't register graph metrics " + name, e);
+        }
+    }
+
+    /**
+     * Unregisters the metrics from the platform MBean server. They keep recording.
+     */
+    public void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(objectName))
+                server.unregisterMBean(objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException("Can't unregister graph metrics " + objectName, e);
+        }
+    }
+
+    /**
+     * @return the name the metrics are registered under
+     */
+    public ObjectName getObjectName() {
+        return objectName;
+    }
+
+    public Map<String, Long> getOperationCounts() {
+        TreeMap<String, Long> values = new TreeMap<String, Long>();
+        for (Map.Entry<String, LatencyHistogram> entry : getAllLatencies().entrySet())
+            values.put(entry.getKey(), entry.getValue().getCount());
+        return values;
+    }
+
+    public Map<String, Long> getMeanLatencies() {
+        TreeMap<String, Long> values = new TreeMap<String, Long>();
+        for (Map.Entry<String, LatencyHistogram> entry : getAllLatencies().entrySet())
+            values.put(entry.getKey(), entry.getValue().getMeanNanos());
+        return values;
+    }
+
+    public Map<String, Long> getP99Latencies() {
+        TreeMap<String, Long> values = new TreeMap<String, Long>();
+        for (Map.Entry<String, LatencyHistogram> entry : getAllLatencies().entrySet())
+            values.put(entry.getKey(), entry.getValue().getPercentileNanos(99));
+        return values;
+    }
+
+    public Map<String, Long> getMaxLatencies() {
+        TreeMap<String, Long> values = new TreeMap<String, Long>();
+        for (Map.Entry<String, LatencyHistogram> entry : getAllLatencies().entrySet())
+            values.put(entry.getKey(), entry.getValue().getMaxNanos());
+        return values;
+    }
+
+    public Map<String, Long> getInfectedCounts() {
+        // JMX maps need string keys
+        TreeMap<String, Long> values = new TreeMap<String, Long>();
+        for (Map.Entry<Integer, Long> entry : getInfectedCountsByVersion().entrySet())
+            values.put(String.valueOf(entry.getKey()), entry.getValue());
+        return values;
+    }
+}
@@ -0,0 +1,72 @@
+package src;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of latencies in nanoseconds. Latencies are counted in power-of-two buckets
+ * (bucket 0 holds zero, bucket b > 0 holds latencies in [2^(b-1), 2^b)), so percentiles are accurate to within a factor of two,
+ * which is plenty to see where a slow call went, at the cost of one atomic increment per recording.
+ */
+public class LatencyHistogram {
+    private static final int NUM_BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records one latency.
+     * @param nanos the latency, in nanoseconds
+     */
+    public void record(long nanos) {
+        nanos = Math.max(nanos, 0);
+        buckets.incrementAndGet(NUM_BUCKETS - Long.numberOfLeadingZeros(nanos));
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos))
+            max = maxNanos.get();
+    }
+
+    /**
+     * @return the number of latencies recorded
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the mean latency in nanoseconds, or 0 if nothing was recorded
+     */
+    public long getMeanNanos() {
+        long n = count.get();
+        return n == 0 ? 0 : totalNanos.get() / n;
+    }
+
+    /**
+     * @return the largest latency recorded, in nanoseconds
+     */
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * @param percentile the percentile to get, between 0 and 100
+     * @return           an upper bound (within a factor of two) on the latency at that percentile, in nanoseconds
+     */
+    public long getPercentileNanos(double percentile) {
+        long n = count.get();
+        if (n == 0)
+            return 0;
+        long rank = (long) Math.ceil(n * percentile / 100.0);
+        long seen = 0;
+        for (int b = 0; b < NUM_BUCKETS; b++) {
+            seen += buckets.get(b);
+            if (seen >= rank)
+                return Math.min(b == NUM_BUCKETS - 1 ? Long.MAX_VALUE : (1L << b) - 1, maxNanos.get());
+        }
+        return maxNanos.get();
+    }
+}
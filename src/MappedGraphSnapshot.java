@@ -0,0 +1,66 @@
+package src;
+
+import java.nio.IntBuffer;
+
+/**
+ * A read-only graph snapshot backed by a memory-mapped snapshot file (see GraphSnapshotFile).
+ * Opening one costs nothing per user: every accessor reads straight out of the mapped file, and the OS pages
+ * in whatever parts of it a traversal touches.
+ */
+public class MappedGraphSnapshot extends GraphSnapshot {
+    private final IntBuffer userIds;
+    private final IntBuffer siteVersions;
+    private final IntBuffer studentOffsets;
+    private final IntBuffer studentTargets;
+    private final IntBuffer teacherOffsets;
+    private final IntBuffer teacherTargets;
+
+    /**
+     * Construct a MappedGraphSnapshot from the mapped sections of a snapshot file.
+     */
+    MappedGraphSnapshot(IntBuffer userIds, IntBuffer siteVersions, IntBuffer studentOffsets,
+                        IntBuffer studentTargets, IntBuffer teacherOffsets, IntBuffer teacherTargets) {
+        this.userIds = userIds;
+        this.siteVersions = siteVersions;
+        this.studentOffsets = studentOffsets;
+        this.studentTargets = studentTargets;
+        this.teacherOffsets = teacherOffsets;
+        this.teacherTargets = teacherTargets;
+    }
+
+    public int getNumUsers() {
+        return userIds.limit();
+    }
+
+    public int getNumEdges() {
+        return studentTargets.limit();
+    }
+
+    public int getNumTeacherEdges() {
+        return teacherTargets.limit();
+    }
+
+    public int getUserId(int index) {
+        return userIds.get(index);
+    }
+
+    public int getSiteVersion(int index) {
+        return siteVersions.get(index);
+    }
+
+    public int getStudentOffset(int index) {
+        return studentOffsets.get(index);
+    }
+
+    public int getStudentTarget(int edge) {
+        return studentTargets.get(edge);
+    }
+
+    public int getTeacherOffset(int index) {
+        return teacherOffsets.get(index);
+    }
+
+    public int getTeacherTarget(int edge) {
+        return teacherTargets.get(edge);
+    }
+}
@@ -0,0 +1,252 @@
+package src;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Labels the connected components of a GraphSnapshot using every core of a ForkJoinPool.
+ * The edges are split into chunks that are unioned in parallel into a lock-free union-find: a root is
+ * only ever linked (by CAS) under a root with a smaller index, so no locks are needed and the root of every
+ * component ends up being its smallest user index. The labels produced are the same as those of
+ * GraphSnapshot.getComponentLabels(). Both student and teacher edges are unioned, since the two sides only mirror
+ * each other until User.setStudents or setTeachers replaces one of them.
+ */
+public class ParallelComponents {
+    // Roughly how many edges (plus users) one task handles before it is split
+    private static final int EDGES_PER_TASK = 1 << 15;
+    // The passes of ChunkTask
+    private static final int FIND = 0;
+    private static final int NUMBER = 1;
+    private static final int RESOLVE = 2;
+    private static final int DECODE = 3;
+
+    private final GraphSnapshot snapshot;
+    private final AtomicIntegerArray parent;
+
+    private ParallelComponents(GraphSnapshot snapshot) {
+        this.snapshot = snapshot;
+        this.parent = new AtomicIntegerArray(snapshot.getNumUsers());
+    }
+
+    /**
+     * Labels every user of the snapshot with the connected component it belongs to, using the common pool.
+     * @param snapshot the snapshot to label
+     * @return         an array mapping dense user indices to dense component labels
+     */
+    public static int[] label(GraphSnapshot snapshot) {
+        return label(snapshot, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Labels every user of the snapshot with the connected component it belongs to.
+     * @param snapshot the snapshot to label
+     * @param pool     the pool to run on
+     * @return         an array mapping dense user indices to dense component labels, numbered in order of each
+     *                 component's smallest user index
+     */
+    public static int[] label(GraphSnapshot snapshot, ForkJoinPool pool) {
+        ParallelComponents components = new ParallelComponents(snapshot);
+        int numUsers = snapshot.getNumUsers();
+        int[] labels = new int[numUsers];
+        if (numUsers == 0)
+            return labels;
+        pool.invoke(components.new InitTask(0, numUsers));
+        pool.invoke(components.new UnionTask(0, numUsers));
+        // Roots are numbered in index order: count the roots of every chunk, then hand out labels from the offsets
+        int numChunks = Math.max(1, Math.min(numUsers / 4096, pool.getParallelism() * 8));
+        int[] chunkRoots = new int[numChunks + 1];
+        pool.invoke(components.new ChunkTask(FIND, labels, chunkRoots, numChunks, 0, numChunks));
+        for (int c = 0; c < numChunks; c++)
+            chunkRoots[c + 1] += chunkRoots[c];
+        for (int pass = NUMBER; pass <= DECODE; pass++)
+            pool.invoke(components.new ChunkTask(pass, labels, chunkRoots, numChunks, 0, numChunks));
+        return labels;
+    }
+
+    /**
+     * Finds the root of x, halving the path to it along the way.
+     */
+    private int find(int x) {
+        int p = parent.get(x);
+        while (p != x) {
+            int gp = parent.get(p);
+            if (gp != p)
+                parent.compareAndSet(x, p, gp);
+            x = p;
+            p = gp;
+        }
+        return x;
+    }
+
+    /**
+     * Merges the components of a and b by linking the larger root under the smaller one.
+     */
+    private void union(int a, int b) {
+        while (true) {
+            a = find(a);
+            b = find(b);
+            if (a == b)
+                return;
+            if (a < b) {
+                int tmp = a;
+                a = b;
+                b = tmp;
+            }
+            // a is the larger root; if it stopped being a root in the meantime, try again
+            if (parent.compareAndSet(a, a, b))
+                return;
+        }
+    }
+
+    /**
+     * @return the first user of the given chunk, when numUsers users are split into numChunks chunks
+     */
+    private static int chunkStart(int chunk, int numChunks, int numUsers) {
+        return (int) ((long) chunk * numUsers / numChunks);
+    }
+
+    /**
+     * Makes every user in [from, to) its own root.
+     */
+    private class InitTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        InitTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            if (to - from > EDGES_PER_TASK) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new InitTask(from, mid), new InitTask(mid, to));
+                return;
+            }
+            for (int i = from; i < to; i++)
+                parent.set(i, i);
+        }
+    }
+
+    /**
+     * @return the number of student and teacher edges of the users before user i, plus i
+     */
+    private long workBefore(int i) {
+        return (long) snapshot.getStudentOffset(i) + snapshot.getTeacherOffset(i) + i;
+    }
+
+    /**
+     * Unions every user in [from, to) with its students and teachers. Splits so that every task gets about the
+     * same number of edges, however they are spread out over the users.
+     */
+    private class UnionTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        UnionTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        protected void compute() {
+            long work = workBefore(to) - workBefore(from);
+            if (work > EDGES_PER_TASK && to - from > 1) {
+                int mid = splitPoint();
+                invokeAll(new UnionTask(from, mid), new UnionTask(mid, to));
+                return;
+            }
+            for (int u = from; u < to; u++) {
+                int numStudents = snapshot.getNumStudents(u);
+                for (int i = 0; i < numStudents; i++)
+                    union(u, snapshot.getStudent(u, i));
+                int numTeachers = snapshot.getNumTeachers(u);
+                for (int i = 0; i < numTeachers; i++)
+                    union(u, snapshot.getTeacher(u, i));
+            }
+        }
+
+        /**
+         * @return the user in (from, to) that splits the edges of [from, to) closest to evenly
+         */
+        private int splitPoint() {
+            long target = (workBefore(from) + workBefore(to)) / 2;
+            int lo = from + 1;
+            int hi = to - 1;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (workBefore(mid) < target)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return lo;
+        }
+    }
+
+    /**
+     * Runs one pass of the labeling over users in chunks [fromChunk, toChunk). The passes are:
+     * FIND stores every user's root in labels and counts the roots of each chunk into chunkRoots[chunk + 1];
+     * NUMBER replaces each root with its (encoded) dense label, using the per-chunk offsets in chunkRoots;
+     * RESOLVE copies the encoded label of every other user's root, which NUMBER has finished by then; and
+     * DECODE turns the encoded labels into plain ones. Labels are encoded as -1 - label so that RESOLVE can
+     * tell labeled roots from root indices.
+     */
+    private class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int pass;
+        private final int[] labels;
+        private final int[] chunkRoots;
+        private final int numChunks;
+        private final int fromChunk;
+        private final int toChunk;
+
+        ChunkTask(int pass, int[] labels, int[] chunkRoots, int numChunks, int fromChunk, int toChunk) {
+            this.pass = pass;
+            this.labels = labels;
+            this.chunkRoots = chunkRoots;
+            this.numChunks = numChunks;
+            this.fromChunk = fromChunk;
+            this.toChunk = toChunk;
+        }
+
+        protected void compute() {
+            if (toChunk - fromChunk > 1) {
+                int mid = (fromChunk + toChunk) >>> 1;
+                invokeAll(new ChunkTask(pass, labels, chunkRoots, numChunks, fromChunk, mid),
+                        new ChunkTask(pass, labels, chunkRoots, numChunks, mid, toChunk));
+                return;
+            }
+            int from = chunkStart(fromChunk, numChunks, labels.length);
+            int to = chunkStart(toChunk, numChunks, labels.length);
+            if (pass == FIND) {
+                int roots = 0;
+                for (int i = from; i < to; i++) {
+                    labels[i] = find(i);
+                    if (labels[i] == i)
+                        roots++;
+                }
+                chunkRoots[fromChunk + 1] = roots;
+            } else if (pass == NUMBER) {
+                int label = chunkRoots[fromChunk];
+                for (int i = from; i < to; i++) {
+                    if (labels[i] == i)
+                        labels[i] = -1 - label++;
+                }
+            } else if (pass == RESOLVE) {
+                for (int i = from; i < to; i++) {
+                    if (labels[i] >= 0)
+                        labels[i] = labels[labels[i]];
+                }
+            } else {
+                for (int i = from; i < to; i++)
+                    labels[i] = -1 - labels[i];
+            }
+        }
+    }
+}
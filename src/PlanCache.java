@@ -0,0 +1,155 @@
+package src;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded LRU cache of the infection plans of a UserGraph, keyed by (strategy, limit, epoch). The epoch of a
+ * graph is bumped by every change to it (see UserGraph.getEpoch), so a plan is only ever reused for the graph it
+ * was computed on, and asking the same question again of an unchanged graph is a single lookup. Once the epoch
+ * moves on, every cached plan is stale, so the cache is emptied the first time it sees a newer epoch. A caller
+ * that read an older epoch (say while an infection ran on another thread) misses, and its plan isn't cached.
+ *
+ * The cached plans are shared between callers, who must not change their lists of trees.
+ */
+public class PlanCache {
+    /**
+     * The planning methods whose plans are cached.
+     */
+    public enum Strategy {
+        /** UserGraph.planLimitedInfectionSmart */
+        SMART,
+        /** UserGraph.planLimitedInfection */
+        EXACT
+    }
+
+    private final LinkedHashMap<Key, InfectionPlan> plans;
+    private int capacity;
+    private long epoch;
+    private long hits;
+    private long misses;
+
+    /**
+     * Makes an empty cache.
+     * @param capacity the most plans to keep; 0 turns caching off
+     */
+    public PlanCache(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity must not be negative, got " + capacity);
+        this.capacity = capacity;
+        // Access order, so the eldest entry is the least recently used one
+        plans = new LinkedHashMap<Key, InfectionPlan>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<Key, InfectionPlan> eldest) {
+                return size() > PlanCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Looks up a plan, counting a hit or a miss.
+     * @param strategy the strategy the plan was made with
+     * @param limit    the limit the plan was made for
+     * @param epoch    the current epoch of the graph
+     * @return         the cached plan, or null if there is none
+     */
+    synchronized InfectionPlan get(Strategy strategy, int limit, long epoch) {
+        if (epoch < this.epoch) {
+            misses++;
+            return null;
+        }
+        if (epoch > this.epoch) {
+            plans.clear();
+            this.epoch = epoch;
+        }
+        InfectionPlan plan = plans.get(new Key(strategy, limit, epoch));
+        if (plan != null)
+            hits++;
+        else
+            misses++;
+        return plan;
+    }
+
+    /**
+     * Caches a plan, evicting the least recently used plan if the cache is full.
+     * @param strategy the strategy the plan was made with
+     * @param limit    the limit the plan was made for
+     * @param epoch    the epoch of the graph the plan was made on
+     * @param plan     the plan
+     */
+    synchronized void put(Strategy strategy, int limit, long epoch, InfectionPlan plan) {
+        if (epoch == this.epoch && capacity > 0)
+            plans.put(new Key(strategy, limit, epoch), plan);
+    }
+
+    /**
+     * @return the number of lookups that found a plan
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of lookups that found no plan
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of plans in the cache
+     */
+    public synchronized int size() {
+        return plans.size();
+    }
+
+    /**
+     * @return the most plans the cache keeps
+     */
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Changes the most plans the cache keeps, evicting the least recently used plans if there are too many.
+     * @param capacity the new capacity; 0 turns caching off
+     */
+    public synchronized void setCapacity(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity must not be negative, got " + capacity);
+        this.capacity = capacity;
+        while (plans.size() > capacity)
+            plans.remove(plans.keySet().iterator().next());
+    }
+
+    /**
+     * Empties the cache and resets the hit and miss counts.
+     */
+    public synchronized void clear() {
+        plans.clear();
+        hits = 0;
+        misses = 0;
+    }
+
+    private static final class Key {
+        private final Strategy strategy;
+        private final int limit;
+        private final long epoch;
+
+        Key(Strategy strategy, int limit, long epoch) {
+            this.strategy = strategy;
+            this.limit = limit;
+            this.epoch = epoch;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return strategy == other.strategy && limit == other.limit && epoch == other.epoch;
+        }
+
+        public int hashCode() {
+            return (strategy.ordinal() * 31 + limit) * 31 + (int) (epoch ^ (epoch >>> 32));
+        }
+    }
+}
@@ -0,0 +1,420 @@
+package src;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * An append-only, memory-mapped log of rollouts, so that a rollout can be rolled back and the site versions of a
+ * graph can be recovered after a crash. Attach one to a graph with UserGraph.setJournal; every infection is then
+ * written here (the users, their old site versions and the new one) before any user is changed.
+ *
+ * All values are little-endian 32-bit ints, except the committed length:
+ *
+ *   header:  magic ("KURJ"), formatVersion, committedLength (64 bits), 16 reserved bytes
+ *   entries: type, rolloutId, bodyBytes, body[bodyBytes]
+ *
+ * A ROLLOUT body is newVersion, numUsers, numSegments and then the segments. The users of a rollout are sorted by
+ * old version and userId, and runs of consecutive userIds with the same old version are stored as
+ * RANGE segments (RANGE, oldVersion, firstUserId, count). Everything else goes into LIST segments
+ * (LIST, oldVersion, count, userIds[count]). A ROLLBACK entry has no body, and marks rollout rolloutId as rolled back.
+ * Rollout ids count up from 0.
+ *
+ * An entry only counts once the committed length in the header has moved past it. The header is updated after
+ * the entry is written, so a crash halfway through an append leaves the journal as it was before the append.
+ * Everything written survives the process dying; call force() to also survive the machine going down.
+ */
+public class RolloutJournal implements Closeable {
+    public static final int MAGIC = 0x4B55524A;
+    public static final int FORMAT_VERSION = 1;
+    static final int ROLLOUT = 1;
+    static final int ROLLBACK = 2;
+    static final int RANGE = 1;
+    static final int LIST = 2;
+    private static final int HEADER_BYTES = 32;
+    private static final int COMMITTED_OFFSET = 8;
+    private static final int ENTRY_HEADER_BYTES = 12;
+    // Runs of at least this many consecutive userIds are stored as a RANGE segment
+    private static final int MIN_RANGE = 3;
+    // How much of the file is mapped for appending at a time
+    private static final int WINDOW_BYTES = 1 << 24;
+
+    private final File file;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long committed;
+    // Where the entry of each rollout starts, and which rollouts have been rolled back
+    private long[] rolloutOffsets = new long[16];
+    private int numRollouts;
+    private final BitSet rolledBack = new BitSet();
+
+    /**
+     * Opens a journal.
+     */
+    private RolloutJournal(File file, FileChannel channel, MappedByteBuffer header) {
+        this.file = file;
+        this.channel = channel;
+        this.header = header;
+    }
+
+    /**
+     * Opens a journal file, creating it if it doesn't exist. Whatever was appended after the last committed entry
+     * (e.g. by a process that died halfway through an append) is ignored and will be overwritten.
+     * @param file the file to open
+     * @return     the journal
+     * @throws IOException if the file can't be opened or is not a journal in a supported format
+     */
+    public static RolloutJournal open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            boolean created = channel.size() == 0;
+            if (!created && channel.size() < HEADER_BYTES)
+                throw new IOException(file + " is too short to be a rollout journal");
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            RolloutJournal journal = new RolloutJournal(file, channel, header);
+            if (created) {
+                header.putInt(0, MAGIC).putInt(4, FORMAT_VERSION).putLong(COMMITTED_OFFSET, HEADER_BYTES);
+                journal.committed = HEADER_BYTES;
+            } else {
+                journal.load();
+            }
+            return journal;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Checks the header and indexes the committed entries.
+     */
+    private void load() throws IOException {
+        if (header.getInt(0) != MAGIC)
+            throw new IOException(file + " is not a rollout journal");
+        int version = header.getInt(4);
+        if (version != FORMAT_VERSION)
+            throw new IOException(file + " has unsupported journal format version " + version);
+        committed = header.getLong(COMMITTED_OFFSET);
+        if (committed < HEADER_BYTES || committed > channel.size())
+            throw new IOException(file + " has a committed length of " + committed + " but is "
+                    + channel.size() + " bytes long");
+        ByteBuffer entryHeader = ByteBuffer.allocate(ENTRY_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        long offset = HEADER_BYTES;
+        while (offset < committed) {
+            entryHeader.clear();
+            while (entryHeader.hasRemaining()) {
+                if (channel.read(entryHeader, offset + entryHeader.position()) < 0)
+                    throw new IOException(file + " ends in the middle of an entry");
+            }
+            int type = entryHeader.getInt(0);
+            int rolloutId = entryHeader.getInt(4);
+            int bodyBytes = entryHeader.getInt(8);
+            // Checked before offset moves, so a corrupt size can't send it backwards (or nowhere)
+            if (bodyBytes < 0 || offset + ENTRY_HEADER_BYTES + bodyBytes > committed)
+                throw new IOException(file + " has an entry running past its committed length at offset " + offset);
+            // A rollout has at least newVersion, numUsers and numSegments, all ints; a rollback has no body
+            if (type == ROLLOUT && rolloutId == numRollouts && bodyBytes >= 12 && bodyBytes % 4 == 0)
+                addRollout(offset);
+            else if (type == ROLLBACK && rolloutId >= 0 && rolloutId < numRollouts && bodyBytes == 0)
+                rolledBack.set(rolloutId);
+            else
+                throw new IOException(file + " has a bad entry at offset " + offset);
+            offset += ENTRY_HEADER_BYTES + bodyBytes;
+        }
+    }
+
+    /**
+     * Appends a rollout.
+     * @param newVersion  the site version the users were moved to
+     * @param userIds     the userIds of the users
+     * @param oldVersions the site version each user was on before
+     * @param count       the number of users (userIds[0..count))
+     * @return            the id of the rollout
+     * @throws IOException if the journal can't be written
+     * @throws IllegalArgumentException if the rollout is too big for one entry
+     */
+    public synchronized int appendRollout(int newVersion, int[] userIds, int[] oldVersions, int count)
+            throws IOException {
+        // Sort by old version, then userId, with the sign bit of the userId flipped so that negative ids sort first
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++)
+            keys[i] = ((long) oldVersions[i] << 32) | ((userIds[i] ^ Integer.MIN_VALUE) & 0xFFFFFFFFL);
+        Arrays.sort(keys);
+
+        // Cut the users into segments: segment k covers keys[starts[k]..starts[k+1]) and is a RANGE if ranges[k]
+        int[] starts = new int[16];
+        boolean[] ranges = new boolean[16];
+        int numSegments = 0;
+        long bodyBytes = 12;
+        int i = 0;
+        while (i < count) {
+            int run = runLength(keys, i, count);
+            boolean range = run >= MIN_RANGE;
+            boolean extendsList = !range && numSegments > 0 && !ranges[numSegments - 1]
+                    && oldVersion(keys[starts[numSegments - 1]]) == oldVersion(keys[i]);
+            if (!extendsList) {
+                if (numSegments + 1 >= starts.length) {
+                    starts = Arrays.copyOf(starts, starts.length * 2);
+                    ranges = Arrays.copyOf(ranges, ranges.length * 2);
+                }
+                starts[numSegments] = i;
+                ranges[numSegments] = range;
+                numSegments++;
+                bodyBytes += range ? 16 : 12;
+            }
+            if (!range)
+                bodyBytes += 4 * run;
+            i += run;
+        }
+        starts[numSegments] = count;
+        // Entry sizes are ints, and the whole entry is mapped as one buffer
+        if (bodyBytes > Integer.MAX_VALUE - ENTRY_HEADER_BYTES)
+            throw new IllegalArgumentException("A rollout of " + count + " users is too big for one journal entry");
+
+        int rolloutId = numRollouts;
+        ByteBuffer out = reserve(ENTRY_HEADER_BYTES + (int) bodyBytes);
+        out.putInt(ROLLOUT).putInt(rolloutId).putInt((int) bodyBytes);
+        out.putInt(newVersion).putInt(count).putInt(numSegments);
+        for (int k = 0; k < numSegments; k++) {
+            int start = starts[k];
+            int end = starts[k + 1];
+            if (ranges[k]) {
+                out.putInt(RANGE).putInt(oldVersion(keys[start])).putInt(userId(keys[start])).putInt(end - start);
+            } else {
+                out.putInt(LIST).putInt(oldVersion(keys[start])).putInt(end - start);
+                for (int j = start; j < end; j++)
+                    out.putInt(userId(keys[j]));
+            }
+        }
+        addRollout(committed);
+        commit(ENTRY_HEADER_BYTES + (int) bodyBytes);
+        return rolloutId;
+    }
+
+    /**
+     * Marks a rollout as rolled back. The caller is responsible for actually rolling the users back.
+     * @param rolloutId the id of the rollout
+     * @throws IOException if the journal can't be written
+     * @throws IllegalArgumentException if there is no such rollout, or it was already rolled back
+     */
+    public synchronized void appendRollback(int rolloutId) throws IOException {
+        if (rolloutId < 0 || rolloutId >= numRollouts || rolledBack.get(rolloutId))
+            throw new IllegalArgumentException("Rollout " + rolloutId + " can't be rolled back");
+        reserve(ENTRY_HEADER_BYTES).putInt(ROLLBACK).putInt(rolloutId).putInt(0);
+        rolledBack.set(rolloutId);
+        commit(ENTRY_HEADER_BYTES);
+    }
+
+    /**
+     * @return the number of rollouts in the journal, which is also the id the next rollout will get
+     */
+    public synchronized int getNumRollouts() {
+        return numRollouts;
+    }
+
+    /**
+     * @param rolloutId the id of a rollout
+     * @return          true if the rollout has been rolled back, false otherwise
+     */
+    public synchronized boolean isRolledBack(int rolloutId) {
+        return rolledBack.get(rolloutId);
+    }
+
+    /**
+     * @return the number of committed bytes in the journal file, header included
+     */
+    public synchronized long getCommittedLength() {
+        return committed;
+    }
+
+    /**
+     * Reads one rollout: visitor.rollout, then visitor.user for each of its users.
+     * @param rolloutId the id of the rollout
+     * @param visitor   what to tell about the rollout
+     * @throws IOException if the journal can't be read
+     * @throws IllegalArgumentException if there is no such rollout
+     */
+    synchronized void readRollout(int rolloutId, Visitor visitor) throws IOException {
+        if (rolloutId < 0 || rolloutId >= numRollouts)
+            throw new IllegalArgumentException("No rollout " + rolloutId);
+        long offset = rolloutOffsets[rolloutId];
+        ByteBuffer in = map(offset, ENTRY_HEADER_BYTES);
+        in.position(8);
+        int bodyBytes = in.getInt();
+        readRolloutBody(rolloutId, map(offset + ENTRY_HEADER_BYTES, bodyBytes), visitor);
+    }
+
+    /**
+     * Reads every committed entry in the order it was appended: visitor.rollout and visitor.user for rollouts,
+     * and visitor.rollback for rollbacks. The journal is read in big sequential chunks.
+     * @param visitor what to tell about the entries
+     * @throws IOException if the journal can't be read
+     */
+    synchronized void replay(Visitor visitor) throws IOException {
+        long offset = HEADER_BYTES;
+        ByteBuffer chunk = null;
+        long chunkStart = 0;
+        while (offset < committed) {
+            if (chunk == null || offset + ENTRY_HEADER_BYTES > chunkStart + chunk.limit()) {
+                chunkStart = offset;
+                chunk = map(offset, (int) Math.min(WINDOW_BYTES, committed - offset));
+            }
+            chunk.position((int) (offset - chunkStart));
+            int type = chunk.getInt();
+            int rolloutId = chunk.getInt();
+            int bodyBytes = chunk.getInt();
+            long bodyStart = offset + ENTRY_HEADER_BYTES;
+            if (type == ROLLOUT) {
+                ByteBuffer body;
+                if (bodyStart + bodyBytes <= chunkStart + chunk.limit()) {
+                    body = chunk.slice().order(ByteOrder.LITTLE_ENDIAN);
+                    body.limit(bodyBytes);
+                } else {
+                    body = map(bodyStart, bodyBytes);
+                }
+                readRolloutBody(rolloutId, body, visitor);
+            } else {
+                visitor.rollback(rolloutId);
+            }
+            offset = bodyStart + bodyBytes;
+        }
+    }
+
+    /**
+     * Writes everything appended so far out to the disk.
+     * @throws IOException if it can't be written
+     */
+    public synchronized void force() throws IOException {
+        if (window != null)
+            window.force();
+        header.force();
+    }
+
+    /**
+     * Forces the journal to the disk and closes it.
+     * @throws IOException if it can't be written
+     */
+    public synchronized void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    /**
+     * Reads the body of a rollout entry.
+     */
+    private static void readRolloutBody(int rolloutId, ByteBuffer in, Visitor visitor) {
+        int newVersion = in.getInt();
+        in.getInt();
+        int numSegments = in.getInt();
+        visitor.rollout(rolloutId, newVersion);
+        for (int k = 0; k < numSegments; k++) {
+            int kind = in.getInt();
+            int oldVersion = in.getInt();
+            if (kind == RANGE) {
+                int first = in.getInt();
+                int count = in.getInt();
+                for (int j = 0; j < count; j++)
+                    visitor.user(first + j, oldVersion);
+            } else {
+                int count = in.getInt();
+                for (int j = 0; j < count; j++)
+                    visitor.user(in.getInt(), oldVersion);
+            }
+        }
+    }
+
+    /**
+     * @return the number of keys from i on with the same old version and consecutive userIds
+     */
+    private static int runLength(long[] keys, int i, int count) {
+        int j = i + 1;
+        while (j < count && keys[j] == keys[j - 1] + 1 && oldVersion(keys[j]) == oldVersion(keys[i]))
+            j++;
+        return j - i;
+    }
+
+    private static int oldVersion(long key) {
+        return (int) (key >> 32);
+    }
+
+    private static int userId(long key) {
+        return (int) key ^ Integer.MIN_VALUE;
+    }
+
+    /**
+     * Records where the next rollout's entry starts.
+     */
+    private void addRollout(long offset) {
+        if (numRollouts == rolloutOffsets.length)
+            rolloutOffsets = Arrays.copyOf(rolloutOffsets, numRollouts * 2);
+        rolloutOffsets[numRollouts++] = offset;
+    }
+
+    /**
+     * Makes sure the mapped window has room for an entry of the passed-in size at the end of the journal.
+     * @return the window, positioned at the end of the journal
+     */
+    private ByteBuffer reserve(int bytes) throws IOException {
+        if (window == null || committed + bytes > windowStart + window.capacity()) {
+            if (window != null)
+                window.force();
+            windowStart = committed;
+            window = channel.map(FileChannel.MapMode.READ_WRITE, windowStart, Math.max(WINDOW_BYTES, bytes));
+            window.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        window.position((int) (committed - windowStart));
+        return window;
+    }
+
+    /**
+     * Commits the entry just written, by moving the committed length in the header past it.
+     */
+    private void commit(int bytes) {
+        committed += bytes;
+        header.putLong(COMMITTED_OFFSET, committed);
+    }
+
+    /**
+     * Maps part of the journal for reading.
+     */
+    private ByteBuffer map(long offset, int bytes) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Gets told about the entries of a journal as they are read.
+     */
+    interface Visitor {
+        /**
+         * A rollout starts. Its users follow.
+         * @param rolloutId  the id of the rollout
+         * @param newVersion the site version the rollout moved its users to
+         */
+        void rollout(int rolloutId, int newVersion);
+
+        /**
+         * A user of the current rollout.
+         * @param userId     the userId of the user
+         * @param oldVersion the site version the user was on before the rollout
+         */
+        void user(int userId, int oldVersion);
+
+        /**
+         * A rollout was rolled back.
+         * @param rolloutId the id of the rollout
+         * @throws IOException if the visitor reads the journal and that fails
+         */
+        void rollback(int rolloutId) throws IOException;
+    }
+}
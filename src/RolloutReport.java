@@ -0,0 +1,59 @@
+package src;
+
+/**
+ * Represents what UserGraph.infectRollouts did for one RolloutRequest.
+ */
+public class RolloutReport {
+    private RolloutRequest request;
+    private InfectionPlan plan;
+    private boolean seedIncluded;
+
+    /**
+     * Construct a RolloutReport.
+     * @param request      the request this is a report for
+     * @param plan         the trees that were infected for the request
+     * @param seedIncluded true if the component of the request's seed user was infected for this request
+     */
+    public RolloutReport(RolloutRequest request, InfectionPlan plan, boolean seedIncluded) {
+        this.request = request;
+        this.plan = plan;
+        this.seedIncluded = seedIncluded;
+    }
+
+    /**
+     * @return the request this is a report for
+     */
+    public RolloutRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * @return the trees that were infected for the request
+     */
+    public InfectionPlan getPlan() {
+        return plan;
+    }
+
+    /**
+     * @return the number of users infected for the request
+     */
+    public int getNumUsers() {
+        return plan.getNumUsers();
+    }
+
+    /**
+     * @return true if exactly the target number of users was infected, false otherwise
+     */
+    public boolean isExact() {
+        return plan.getNumUsers() == request.getTargetSize();
+    }
+
+    /**
+     * @return true if the component of the request's seed user was infected for this request. False if the request
+     *         had no seed, the seed is not in the graph, or its component was already taken by an earlier rollout
+     *         in the batch.
+     */
+    public boolean isSeedIncluded() {
+        return seedIncluded;
+    }
+}
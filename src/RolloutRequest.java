@@ -0,0 +1,53 @@
+package src;
+
+/**
+ * Represents one rollout in a batch passed to UserGraph.infectRollouts: infect about targetSize users with
+ * siteVersion, optionally making sure that the component of a seed user is one of the infected ones.
+ */
+public class RolloutRequest {
+    private int siteVersion;
+    private int targetSize;
+    private Integer seedUserId;
+
+    /**
+     * Construct a RolloutRequest without a seed user.
+     * @param siteVersion the siteVersion to infect users with
+     * @param targetSize  the number of users to infect
+     */
+    public RolloutRequest(int siteVersion, int targetSize) {
+        this(siteVersion, targetSize, null);
+    }
+
+    /**
+     * Construct a RolloutRequest.
+     * @param siteVersion the siteVersion to infect users with
+     * @param targetSize  the number of users to infect
+     * @param seedUserId  a user whose component must be infected, or null for none
+     */
+    public RolloutRequest(int siteVersion, int targetSize, Integer seedUserId) {
+        this.siteVersion = siteVersion;
+        this.targetSize = targetSize;
+        this.seedUserId = seedUserId;
+    }
+
+    /**
+     * @return the siteVersion to infect users with
+     */
+    public int getSiteVersion() {
+        return siteVersion;
+    }
+
+    /**
+     * @return the number of users to infect
+     */
+    public int getTargetSize() {
+        return targetSize;
+    }
+
+    /**
+     * @return the user whose component must be infected, or null for none
+     */
+    public Integer getSeedUserId() {
+        return seedUserId;
+    }
+}
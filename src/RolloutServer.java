@@ -0,0 +1,532 @@
+package src;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A small local HTTP front end on a UserGraph, for deploy tooling. Every response is a one-line JSON object.
+ *
+ *   GET  /version?user=Y                          the site version of user Y
+ *   GET  /plan?limit=N[&strategy=exact|smart]     plan a limited infection of about N users (see
+ *                                                 planLimitedInfection and planLimitedInfectionSmart)
+ *   POST /infect/limited?user=X&version=V&limit=N limitedInfection(X, V, N)
+ *   POST /infect/total?user=X&version=V           totalInfection(X, V)
+ *   POST /infect/rollout?version=V&size=N[&seed=X] one RolloutRequest of an infectRollouts batch
+ *
+ * A user that isn't in the graph is answered with a 404, for reads and writes alike.
+ *
+ * Requests are handled on a fixed pool of HANDLER_THREADS threads (the project targets Java 11, so there are no
+ * virtual threads), and a write holds its thread until its batch is published. Reads never touch the graph: they
+ * are answered from a CSR snapshot of the graph taken at startup and a copy of the site versions as of the last
+ * write, which is swapped in atomically, so every read sees one consistent state. Exact plans are cached by limit,
+ * since the trees they are made from don't change while the server runs. Writes are queued for a single writer
+ * thread, which takes everything that queued up while it was busy as one batch: all rollouts of the batch go
+ * through a single infectRollouts call, the other infections are applied in the order they arrived, and the new
+ * site versions are published once for the whole batch. A write is only answered once they are published, so a
+ * client always reads its own writes. A write that isn't answered within WRITE_TIMEOUT_SECONDS fails (but may
+ * still be applied), and so does every write once the server is stopped or the writer thread has failed.
+ *
+ * The published site versions are split into pages of PAGE_SIZE users. Publishing a batch copies only the pages
+ * with a user whose site version changed, plus the array of pages, so a batch costs O(changed users + V / PAGE_SIZE)
+ * rather than O(V): at most one page per changed user, and a V / PAGE_SIZE pointer copy (about 2400 pointers
+ * for ten million users).
+ *
+ * The JDK server writes the headers and the body of a response separately, so with Nagle's algorithm on, every
+ * small response waits for the client's delayed ACK (~40ms). Start the JVM with -Dsun.net.httpserver.nodelay=true
+ * to turn it off; main does that itself when the property isn't set, but a program embedding the server has to do
+ * it (the property is JVM-wide, and only read when the first server starts).
+ *
+ * While the server runs, the graph must only be changed through it, and users and edges can't be added or
+ * removed.
+ */
+public class RolloutServer {
+    // The most writes that are coalesced into one batch
+    static final int MAX_BATCH = 1024;
+    // How long a write request waits for its batch before failing
+    static final long WRITE_TIMEOUT_SECONDS = 60;
+    // The published site versions are copied in pages of PAGE_SIZE users
+    static final int PAGE_BITS = 12;
+    static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    // The number of threads requests are handled on
+    static final int HANDLER_THREADS = Math.max(8, 2 * Runtime.getRuntime().availableProcessors());
+
+    private final UserGraph graph;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final LinkedBlockingQueue<Write> writes = new LinkedBlockingQueue<Write>();
+    private final Thread writer;
+    // The structure of the graph, which doesn't change while the server runs
+    private final GraphSnapshot structure;
+    private final int[] graphIndices;
+    // The inverse of graphIndices: the snapshot index of every user, by graph index
+    private final int[] snapshotIndices;
+    private final ArrayList<UserTree> trees;
+    // Exact plans of trees, by limit. The structure never changes, so every plan is made at epoch 0.
+    private final PlanCache plans = new PlanCache(UserGraph.PLAN_CACHE_CAPACITY);
+    // The site versions as of the last write, by snapshot index, in pages. Replaced, never changed, and neither
+    // are the pages once published.
+    private volatile int[][] versions;
+    // Guards stopped against writes being queued, so no write can be queued after stop drains the queue
+    private final Object writeLock = new Object();
+    private volatile boolean stopped;
+    // Why writes stopped being taken, if it wasn't stop
+    private Throwable writerFailure;
+    private long batches;
+    private long batchedWrites;
+
+    /**
+     * Makes a server for the passed-in graph. It doesn't take requests until start is called.
+     * @param graph   the graph to serve
+     * @param address the address to listen on, e.g. new InetSocketAddress(InetAddress.getLoopbackAddress(), 0)
+     * @throws IOException if the address can't be bound
+     */
+    public RolloutServer(UserGraph graph, InetSocketAddress address) throws IOException {
+        this.graph = graph;
+        structure = graph.snapshot();
+        graphIndices = new int[structure.getNumUsers()];
+        snapshotIndices = new int[graphIndices.length];
+        for (int i = 0; i < graphIndices.length; i++) {
+            graphIndices[i] = graph.getUser(structure.getUserId(i)).index;
+            snapshotIndices[graphIndices[i]] = i;
+        }
+        trees = graph.getTrees(structure);
+        // Track before reading, so no change falls between the two
+        graph.getSiteVersions().trackChanges(true);
+        boolean started = false;
+        try {
+            versions = readVersions();
+            server = HttpServer.create(address, 0);
+            started = true;
+        } finally {
+            // Nobody would ever stop a server that failed to start
+            if (!started)
+                graph.getSiteVersions().trackChanges(false);
+        }
+        executor = Executors.newFixedThreadPool(HANDLER_THREADS);
+        server.setExecutor(executor);
+        server.createContext("/version", new VersionHandler());
+        server.createContext("/plan", new PlanHandler());
+        server.createContext("/infect/", new InfectHandler());
+        writer = new Thread(new Runnable() {
+            public void run() {
+                writeLoop();
+            }
+        }, "RolloutServer writer");
+        writer.setDaemon(true);
+    }
+
+    /**
+     * Starts taking requests.
+     */
+    public void start() {
+        writer.start();
+        server.start();
+    }
+
+    /**
+     * Stops taking requests, waiting up to delaySeconds for requests in progress to finish. Writes that were
+     * queued but not yet applied fail.
+     * @param delaySeconds the most seconds to wait
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        synchronized (writeLock) {
+            stopped = true;
+        }
+        writer.interrupt();
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(Math.max(1, delaySeconds)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        executor.shutdown();
+        graph.getSiteVersions().trackChanges(false);
+        failQueued(new IllegalStateException("The server was stopped"));
+    }
+
+    /**
+     * Queues a write for the writer thread.
+     * @throws IllegalStateException if the server was stopped, or its writer failed
+     */
+    private void enqueue(Write write) {
+        synchronized (writeLock) {
+            if (writerFailure != null)
+                throw new IllegalStateException("The writer failed: " + writerFailure, writerFailure);
+            if (stopped)
+                throw new IllegalStateException("The server was stopped");
+            writes.add(write);
+        }
+    }
+
+    /**
+     * Fails every queued write. Only called once no more writes can be queued.
+     */
+    private void failQueued(Throwable cause) {
+        Write write;
+        while ((write = writes.poll()) != null)
+            write.result.completeExceptionally(cause);
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return the cache of exact plans made for GET /plan
+     */
+    PlanCache getPlanCache() {
+        return plans;
+    }
+
+    /**
+     * @return the number of write batches applied so far
+     */
+    public synchronized long getNumBatches() {
+        return batches;
+    }
+
+    /**
+     * @return the number of writes applied so far, over all batches
+     */
+    public synchronized long getNumBatchedWrites() {
+        return batchedWrites;
+    }
+
+    /**
+     * @return the current site version of every user of the structure, by snapshot index, in pages
+     */
+    private int[][] readVersions() {
+        SiteVersionColumn column = graph.getSiteVersions();
+        int n = graphIndices.length;
+        int[][] pages = new int[(n + PAGE_MASK) >>> PAGE_BITS][];
+        for (int p = 0; p < pages.length; p++) {
+            pages[p] = new int[Math.min(PAGE_SIZE, n - (p << PAGE_BITS))];
+            for (int i = 0; i < pages[p].length; i++)
+                pages[p][i] = column.get(graphIndices[(p << PAGE_BITS) + i]);
+        }
+        return pages;
+    }
+
+    /**
+     * Publishes the site versions of the users whose site version changed since the last call, copying only the
+     * pages they are on.
+     */
+    private void publishChanges() {
+        SiteVersionColumn column = graph.getSiteVersions();
+        int[] changed = column.drainChanges();
+        if (changed.length == 0)
+            return;
+        int[][] pages = versions.clone();
+        boolean[] copied = new boolean[pages.length];
+        for (int graphIndex : changed) {
+            int index = snapshotIndices[graphIndex];
+            int p = index >>> PAGE_BITS;
+            if (!copied[p]) {
+                pages[p] = pages[p].clone();
+                copied[p] = true;
+            }
+            pages[p][index & PAGE_MASK] = column.get(graphIndex);
+        }
+        versions = pages;
+    }
+
+    /**
+     * Applies queued writes in batches until the server is stopped.
+     */
+    private void writeLoop() {
+        ArrayList<Write> batch = new ArrayList<Write>();
+        while (!stopped) {
+            try {
+                batch.add(writes.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            writes.drainTo(batch, MAX_BATCH - 1);
+            try {
+                applyBatch(batch);
+            } catch (RuntimeException e) {
+                for (Write write : batch)
+                    write.result.completeExceptionally(e);
+            } catch (Throwable e) {
+                // Probably out of memory; the graph can't be trusted any more, so stop taking writes
+                for (Write write : batch)
+                    write.result.completeExceptionally(e);
+                synchronized (writeLock) {
+                    writerFailure = e;
+                }
+                failQueued(e);
+                return;
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Applies a batch of writes to the graph, publishes the new site versions, and answers the writes.
+     */
+    private void applyBatch(ArrayList<Write> batch) {
+        ArrayList<RolloutRequest> requests = new ArrayList<RolloutRequest>();
+        for (Write write : batch) {
+            if (write.kind == Write.ROLLOUT)
+                requests.add(new RolloutRequest(write.siteVersion, write.limit, write.userId));
+        }
+        ArrayList<RolloutReport> reports = requests.isEmpty() ? null : graph.infectRollouts(requests);
+        String[] responses = new String[batch.size()];
+        int r = 0;
+        for (int k = 0; k < batch.size(); k++) {
+            Write write = batch.get(k);
+            if (write.kind == Write.ROLLOUT) {
+                RolloutReport report = reports.get(r++);
+                responses[k] = "{\"infected\":" + report.getNumUsers() + ",\"exact\":" + report.isExact()
+                        + ",\"seedIncluded\":" + report.isSeedIncluded() + "}";
+            } else {
+                boolean done = write.kind == Write.LIMITED
+                        ? graph.limitedInfection(write.userId, write.siteVersion, write.limit)
+                        : graph.totalInfection(write.userId, write.siteVersion);
+                responses[k] = "{\"infected\":" + done + "}";
+            }
+        }
+        publishChanges();
+        synchronized (this) {
+            batches++;
+            batchedWrites += batch.size();
+        }
+        for (int k = 0; k < batch.size(); k++)
+            batch.get(k).result.complete(responses[k]);
+    }
+
+    /**
+     * Starts a server on the loopback address for the graph in an edge file (see EdgeFileLoader).
+     * Usage: RolloutServer edgeFile [port]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: RolloutServer edgeFile [port]");
+            return;
+        }
+        // See the class comment; this JVM is ours, so turning it off here doesn't affect anyone else
+        if (System.getProperty("sun.net.httpserver.nodelay") == null)
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        UserGraph graph = EdgeFileLoader.load(new File(args[0]));
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+        RolloutServer server = new RolloutServer(graph, new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        server.start();
+        System.out.println("Serving " + graph.getUserList().size() + " users on port " + server.getPort());
+    }
+
+    /**
+     * A queued infection.
+     */
+    private static class Write {
+        static final int LIMITED = 0;
+        static final int TOTAL = 1;
+        static final int ROLLOUT = 2;
+
+        final int kind;
+        final Integer userId;
+        final int siteVersion;
+        final int limit;
+        final CompletableFuture<String> result = new CompletableFuture<String>();
+
+        Write(int kind, Integer userId, int siteVersion, int limit) {
+            this.kind = kind;
+            this.userId = userId;
+            this.siteVersion = siteVersion;
+            this.limit = limit;
+        }
+    }
+
+    /**
+     * The base of all handlers: parses the query, and turns a bad request into a 400.
+     */
+    private abstract static class Handler implements HttpHandler {
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                HashMap<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+                respond(exchange, 200, handle(exchange, params));
+            } catch (IllegalArgumentException e) {
+                respond(exchange, 400, error(e.getMessage()));
+            } catch (NoSuchUserException e) {
+                respond(exchange, 404, error(e.getMessage()));
+            } catch (RuntimeException e) {
+                respond(exchange, 500, error(String.valueOf(e)));
+            } finally {
+                exchange.close();
+            }
+        }
+
+        /**
+         * Handles a request.
+         * @return the JSON to respond with
+         */
+        abstract String handle(HttpExchange exchange, HashMap<String, String> params);
+
+        static void requireMethod(HttpExchange exchange, String method) {
+            if (!exchange.getRequestMethod().equalsIgnoreCase(method))
+                throw new IllegalArgumentException(exchange.getRequestURI().getPath() + " needs a " + method);
+        }
+
+        static int getInt(HashMap<String, String> params, String name) {
+            String value = params.get(name);
+            if (value == null)
+                throw new IllegalArgumentException("Missing parameter " + name);
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Parameter " + name + " is not an int: " + value);
+            }
+        }
+
+        private static HashMap<String, String> parseQuery(String query) {
+            HashMap<String, String> params = new HashMap<String, String>();
+            if (query == null)
+                return params;
+            for (String pair : query.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0)
+                    params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                            URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+            return params;
+        }
+
+        private static String error(String message) {
+            return "{\"error\":\"" + String.valueOf(message).replace("\\", "\\\\").replace("\"", "\\\"") + "\"}";
+        }
+
+        private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+            byte[] body = (json + "\n").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        }
+    }
+
+    /**
+     * Thrown for a userId that isn't in the graph; answered with a 404.
+     */
+    private static class NoSuchUserException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        NoSuchUserException(int userId) {
+            super("No user " + userId);
+        }
+    }
+
+    private class VersionHandler extends Handler {
+        String handle(HttpExchange exchange, HashMap<String, String> params) {
+            requireMethod(exchange, "GET");
+            int userId = getInt(params, "user");
+            int index = structure.indexOf(userId);
+            if (index < 0)
+                throw new NoSuchUserException(userId);
+            int version = versions[index >>> PAGE_BITS][index & PAGE_MASK];
+            return "{\"user\":" + userId + ",\"version\":" + version + "}";
+        }
+    }
+
+    private class PlanHandler extends Handler {
+        String handle(HttpExchange exchange, HashMap<String, String> params) {
+            requireMethod(exchange, "GET");
+            int limit = getInt(params, "limit");
+            String strategy = params.containsKey("strategy") ? params.get("strategy") : "exact";
+            int numUsers;
+            int numTrees;
+            if (strategy.equals("exact")) {
+                InfectionPlan plan = plans.get(PlanCache.Strategy.EXACT, limit, 0);
+                if (plan == null) {
+                    plan = SubsetSumPlanner.plan(trees, limit);
+                    plans.put(PlanCache.Strategy.EXACT, limit, 0, plan);
+                }
+                numUsers = plan.getNumUsers();
+                numTrees = plan.getTrees().size();
+            } else if (strategy.equals("smart")) {
+                numUsers = nearestTreeSize(limit);
+                numTrees = numUsers > 0 ? 1 : 0;
+            } else {
+                throw new IllegalArgumentException("Unknown strategy " + strategy);
+            }
+            return "{\"limit\":" + limit + ",\"strategy\":\"" + strategy + "\",\"users\":" + numUsers
+                    + ",\"trees\":" + numTrees + ",\"exact\":" + (numUsers == limit) + "}";
+        }
+
+        /**
+         * @return the size of the tree closest in size to limit (the larger one on a tie), or 0 if there are none
+         */
+        private int nearestTreeSize(int limit) {
+            // trees is sorted by descending size
+            int lo = 0;
+            int hi = trees.size();
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (trees.get(mid).getNumUsers() > limit)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            int below = lo < trees.size() ? trees.get(lo).getNumUsers() : -1;
+            int above = lo > 0 ? trees.get(lo - 1).getNumUsers() : -1;
+            if (above < 0)
+                return Math.max(below, 0);
+            if (below < 0 || (long) above - limit <= (long) limit - below)
+                return above;
+            return below;
+        }
+    }
+
+    private class InfectHandler extends Handler {
+        String handle(HttpExchange exchange, HashMap<String, String> params) {
+            requireMethod(exchange, "POST");
+            String kind = exchange.getRequestURI().getPath().substring("/infect/".length());
+            int siteVersion = getInt(params, "version");
+            Write write;
+            if (kind.equals("limited"))
+                write = new Write(Write.LIMITED, getInt(params, "user"), siteVersion, getInt(params, "limit"));
+            else if (kind.equals("total"))
+                write = new Write(Write.TOTAL, getInt(params, "user"), siteVersion, Integer.MAX_VALUE);
+            else if (kind.equals("rollout"))
+                write = new Write(Write.ROLLOUT, params.containsKey("seed") ? getInt(params, "seed") : null,
+                        siteVersion, getInt(params, "size"));
+            else
+                throw new IllegalArgumentException("Unknown infection " + kind);
+            if (write.kind != Write.ROLLOUT && structure.indexOf(write.userId) < 0)
+                throw new NoSuchUserException(write.userId);
+            enqueue(write);
+            try {
+                return write.result.get(WRITE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the write");
+            } catch (TimeoutException e) {
+                // The write may still be applied later
+                throw new IllegalStateException("Timed out waiting for the write");
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause().getMessage(), e.getCause());
+            }
+        }
+    }
+}
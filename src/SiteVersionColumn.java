@@ -0,0 +1,211 @@
+package src;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The site versions of all users of a UserGraph, stored as one primitive array keyed by the users' dense indices
+ * rather than as a field in every User object. User.getSiteVersion and setSiteVersion read and write it while the
+ * user is in a graph.
+ * The number of users on each site version is kept up to date on every change, so it can be asked for in O(1),
+ * and bulk changes are tight loops over the array that the JIT can unroll and vectorize.
+ * Changes are synchronized, so infections running on several threads at once keep the counts right. Reading a
+ * single user's site version (and the size and mod count) takes no lock, since it is done on every
+ * User.getSiteVersion: the array is only ever replaced by a bigger copy, published through a volatile field.
+ *
+ * Moving users between site versions with moveAll changes nothing but the column; UserGraph.moveSiteVersion also
+ * logs the move to the graph's journal and infected users.
+ */
+public class SiteVersionColumn {
+    // Replaced (never shrunk) when the column grows, so a reader always sees an array at least size long
+    private volatile int[] versions;
+    private volatile int size;
+    // counts.get(v)[0] is the number of users on site version v. Versions with no users are left out.
+    private final HashMap<Integer, int[]> counts = new HashMap<Integer, int[]>();
+    // Bumped by every change to the column
+    private volatile long modCount;
+    // The indices whose site version was set since the last drainChanges, while changes are tracked (else null)
+    private int[] changed;
+    private int numChanged;
+
+    /**
+     * Makes an empty column with room for capacity users.
+     * @param capacity the initial capacity
+     */
+    public SiteVersionColumn(int capacity) {
+        versions = new int[Math.max(capacity, 1)];
+    }
+
+    /**
+     * @return the number of users in the column
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param index the dense index of a user
+     * @return      the site version of the user
+     */
+    public int get(int index) {
+        return versions[index];
+    }
+
+    /**
+     * @param siteVersion a site version
+     * @return            the number of users on that site version
+     */
+    public synchronized int count(int siteVersion) {
+        int[] count = counts.get(siteVersion);
+        return count == null ? 0 : count[0];
+    }
+
+    /**
+     * @return the number of users on every site version that has any, by site version
+     */
+    public synchronized Map<Integer, Integer> getVersionCounts() {
+        TreeMap<Integer, Integer> values = new TreeMap<Integer, Integer>();
+        for (Map.Entry<Integer, int[]> entry : counts.entrySet())
+            values.put(entry.getKey(), entry.getValue()[0]);
+        return values;
+    }
+
+    /**
+     * @return a number that goes up every time a site version in the column changes
+     */
+    public long getModCount() {
+        return modCount;
+    }
+
+    /**
+     * Moves every user on one site version to another. Use UserGraph.moveSiteVersion to also journal the move and
+     * count the users as infected.
+     * @param from the site version to move users off
+     * @param to   the site version to move them to
+     * @return     the number of users moved
+     */
+    synchronized int moveAll(int from, int to) {
+        int moved = count(from);
+        if (moved == 0 || from == to)
+            return moved;
+        int[] v = versions;
+        int n = size;
+        if (changed != null) {
+            for (int i = 0; i < n; i++) {
+                if (v[i] == from)
+                    recordChange(i);
+            }
+        }
+        // Branch-free, so the JIT can turn it into vector compares and blends
+        for (int i = 0; i < n; i++)
+            v[i] = v[i] == from ? to : v[i];
+        counts.remove(from);
+        adjust(to, moved);
+        modCount++;
+        return moved;
+    }
+
+    /**
+     * @param siteVersion a site version
+     * @return            the dense indices of the users on that site version, in increasing order
+     */
+    synchronized int[] indicesOf(int siteVersion) {
+        int[] indices = new int[count(siteVersion)];
+        int[] v = versions;
+        int k = 0;
+        for (int i = 0; k < indices.length; i++) {
+            if (v[i] == siteVersion)
+                indices[k++] = i;
+        }
+        return indices;
+    }
+
+    /**
+     * Adds a user at the end of the column.
+     * @param siteVersion the site version of the user
+     * @return            the index of the user
+     */
+    synchronized int add(int siteVersion) {
+        int[] v = versions;
+        if (size == v.length) {
+            v = Arrays.copyOf(v, size * 2);
+            versions = v;
+        }
+        v[size] = siteVersion;
+        adjust(siteVersion, 1);
+        modCount++;
+        return size++;
+    }
+
+    /**
+     * Sets the site version of a user.
+     * @param index       the dense index of the user
+     * @param siteVersion the new site version
+     */
+    synchronized void set(int index, int siteVersion) {
+        int old = versions[index];
+        if (old == siteVersion)
+            return;
+        versions[index] = siteVersion;
+        adjust(old, -1);
+        adjust(siteVersion, 1);
+        modCount++;
+        if (changed != null)
+            recordChange(index);
+    }
+
+    /**
+     * Removes a user, moving the last user of the column into its place, the same way a graph swap-removes users
+     * from its user list.
+     * @param index the dense index of the user to remove
+     */
+    synchronized void remove(int index) {
+        adjust(versions[index], -1);
+        versions[index] = versions[--size];
+        modCount++;
+    }
+
+    /**
+     * Starts or stops tracking which users' site versions change, for callers that keep their own copy of the
+     * column up to date (like RolloutServer). Only set and moveAll are tracked; adding or removing users isn't.
+     * @param track true to start tracking (forgetting anything tracked so far), false to stop
+     */
+    synchronized void trackChanges(boolean track) {
+        changed = track ? new int[16] : null;
+        numChanged = 0;
+    }
+
+    /**
+     * @return the indices whose site version was set since changes started being tracked or were last drained,
+     *         possibly with repeats
+     */
+    synchronized int[] drainChanges() {
+        if (changed == null)
+            return new int[0];
+        int[] drained = Arrays.copyOf(changed, numChanged);
+        numChanged = 0;
+        return drained;
+    }
+
+    private void recordChange(int index) {
+        if (numChanged == changed.length)
+            changed = Arrays.copyOf(changed, numChanged * 2);
+        changed[numChanged++] = index;
+    }
+
+    /**
+     * Adds delta to the number of users on a site version.
+     */
+    private void adjust(int siteVersion, int delta) {
+        int[] count = counts.get(siteVersion);
+        if (count == null) {
+            count = new int[1];
+            counts.put(siteVersion, count);
+        }
+        count[0] += delta;
+        if (count[0] == 0)
+            counts.remove(siteVersion);
+    }
+}
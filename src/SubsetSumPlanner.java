@@ -0,0 +1,148 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Plans limited infections exactly: finds a set of trees whose sizes add up to a given limit, or, if there
+ * is none, to the achievable count nearest to it.
+ * This is a subset-sum dynamic program over a bitset, where bit s is set if some set of trees has s users in
+ * total. Adding a tree of size w shifts the bitset left by w and ORs it in, 64 sums per word operation.
+ * Trees of the same size are bucketed and added in chunks of 1, 2, 4, ... trees, so a size that k trees share
+ * only costs O(log k) shifts.
+ */
+public class SubsetSumPlanner {
+
+    private SubsetSumPlanner() {
+
+    }
+
+    /**
+     * Plans an infection of limit users using the passed-in trees.
+     * @param trees the trees that can be infected
+     * @param limit the number of users to infect
+     * @return      a plan that infects exactly limit users if that is possible, or otherwise the number of users
+     *              closest to limit (preferring fewer users on a tie)
+     */
+    public static InfectionPlan plan(List<UserTree> trees, int limit) {
+        if (limit <= 0)
+            return new InfectionPlan(new ArrayList<UserTree>(), 0, limit);
+        long total = 0;
+        HashMap<Integer, ArrayList<UserTree>> buckets = new HashMap<Integer, ArrayList<UserTree>>();
+        for (UserTree tree : trees) {
+            int size = tree.getNumUsers();
+            if (size <= 0)
+                continue;
+            ArrayList<UserTree> bucket = buckets.get(size);
+            if (bucket == null) {
+                bucket = new ArrayList<UserTree>();
+                buckets.put(size, bucket);
+            }
+            bucket.add(tree);
+            total += size;
+        }
+        // Anything further than limit above it is worse than infecting nobody, so sums past 2 * limit don't matter
+        int cap = (int) Math.min(Math.min(total, 2L * limit), Integer.MAX_VALUE - 64);
+
+        // Split each bucket into chunks of 1, 2, 4, ... trees; any count up to the bucket size is a sum of chunks
+        int numItems = 0;
+        int[] itemSizes = new int[16];
+        int[] itemCounts = new int[16];
+        for (Map.Entry<Integer, ArrayList<UserTree>> entry : buckets.entrySet()) {
+            int size = entry.getKey();
+            int count = Math.min(entry.getValue().size(), cap / size);
+            for (int chunk = 1; count > 0; chunk *= 2) {
+                int taken = Math.min(chunk, count);
+                if (numItems == itemSizes.length) {
+                    itemSizes = Arrays.copyOf(itemSizes, numItems * 2);
+                    itemCounts = Arrays.copyOf(itemCounts, numItems * 2);
+                }
+                itemSizes[numItems] = size;
+                itemCounts[numItems] = taken;
+                numItems++;
+                count -= taken;
+            }
+        }
+
+        long[] reachable = new long[(cap >>> 6) + 1];
+        reachable[0] = 1L;
+        // firstItem[s] is the item that first made sum s reachable. Following these back from any reachable sum
+        // uses every item at most once, since s - weight was reachable before that item was added.
+        int[] firstItem = new int[cap + 1];
+        long maxSum = 0;
+        for (int item = 0; item < numItems; item++) {
+            int weight = itemSizes[item] * itemCounts[item];
+            maxSum = Math.min(maxSum + weight, cap);
+            shiftOr(reachable, weight, (int) (maxSum >>> 6), firstItem, item, cap);
+        }
+
+        int best = nearestReachable(reachable, limit, cap);
+        HashMap<Integer, Integer> countsBySize = new HashMap<Integer, Integer>();
+        for (int sum = best; sum > 0; ) {
+            int item = firstItem[sum];
+            Integer soFar = countsBySize.get(itemSizes[item]);
+            countsBySize.put(itemSizes[item], (soFar == null ? 0 : soFar) + itemCounts[item]);
+            sum -= itemSizes[item] * itemCounts[item];
+        }
+        ArrayList<UserTree> chosen = new ArrayList<UserTree>();
+        for (Map.Entry<Integer, Integer> entry : countsBySize.entrySet())
+            chosen.addAll(buckets.get(entry.getKey()).subList(0, entry.getValue()));
+        return new InfectionPlan(chosen, best, limit);
+    }
+
+    /**
+     * ORs reachable shifted left by weight bits into itself, recording item as the first item for every
+     * sum (up to cap) that becomes reachable. Works from the top word down, so every word is shifted from
+     * words that have not been updated yet.
+     * @param reachable the bitset of reachable sums
+     * @param weight    the number of bits to shift by
+     * @param topWord   the highest word that can become non-zero
+     * @param firstItem the first item that made each sum reachable
+     * @param item      the item being added
+     * @param cap       the largest sum that matters
+     */
+    private static void shiftOr(long[] reachable, int weight, int topWord, int[] firstItem, int item, int cap) {
+        int wordShift = weight >>> 6;
+        int bitShift = weight & 63;
+        for (int i = topWord; i >= wordShift; i--) {
+            int from = i - wordShift;
+            long shifted = reachable[from] << bitShift;
+            if (bitShift != 0 && from > 0)
+                shifted |= reachable[from - 1] >>> (64 - bitShift);
+            long added = shifted & ~reachable[i];
+            if (added == 0)
+                continue;
+            reachable[i] |= added;
+            while (added != 0) {
+                int sum = (i << 6) + Long.numberOfTrailingZeros(added);
+                if (sum <= cap)
+                    firstItem[sum] = item;
+                added &= added - 1;
+            }
+        }
+    }
+
+    /**
+     * @return the reachable sum (at most cap) closest to limit, preferring the smaller one on a tie
+     */
+    private static int nearestReachable(long[] reachable, int limit, int cap) {
+        // Nothing above cap is reachable, so for a larger limit the nearest sum is the largest reachable one.
+        // Sums are compared as longs, since limit + diff can overflow an int.
+        long start = Math.min(limit, cap);
+        for (long diff = 0; ; diff++) {
+            long below = start - diff;
+            long above = start + diff;
+            if (below >= 0 && isSet(reachable, (int) below))
+                return (int) below;
+            if (above <= cap && isSet(reachable, (int) above))
+                return (int) above;
+        }
+    }
+
+    private static boolean isSet(long[] bits, int i) {
+        return (bits[i >>> 6] & (1L << i)) != 0;
+    }
+}
@@ -1,22 +1,22 @@
 package src;
 
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.util.Collection;
+import java.util.Collections;
 
 /**
  * Created by mattlim on 11/16/14.
  * Represents a user.
  */
 public class User {
-    // Used for traversing graphs of users.
-    public enum Color {
-        WHITE, GREY, BLACK
-    }
-    protected Color color = Color.WHITE;
+    // Only used while the user is not in a graph; the graph's SiteVersionColumn holds it otherwise
     private int siteVersion = 0;
     private int id;
-    private Deque<User> students = new ArrayDeque<User>();
-    private Deque<User> teachers = new ArrayDeque<User>();
+    // Allocated when the first student/teacher is added, since most users have few or none
+    private Adjacency students;
+    private Adjacency teachers;
+    // The graph this user belongs to (if any), and the user's dense index within that graph
+    UserGraph graph;
+    int index = -1;
 
     /**
      * Makes a user with the passed-in userId.
@@ -47,7 +47,7 @@ public class User {
      * @return the site version of the user
      */
     public int getSiteVersion() {
-        return siteVersion;
+        return graph != null ? graph.getSiteVersions().get(index) : siteVersion;
     }
 
     /**
@@ -55,22 +55,29 @@ public class User {
      * @param newSiteVersion the new site version
      */
     public void setSiteVersion(int newSiteVersion) {
-        siteVersion = newSiteVersion;
+        if (graph != null)
+            graph.getSiteVersions().set(index, newSiteVersion);
+        else
+            siteVersion = newSiteVersion;
     }
 
     /**
-     * @return the list of this user's students
+     * Used to return the Deque the user kept its students in. The collection returned now is a read-only view:
+     * changing it throws UnsupportedOperationException, so use addStudent/removeStudent (or copy it into a Deque).
+     * @return the (read-only) collection of this user's students
      */
-    public Deque<User> getStudents() {
-        return students;
+    public Collection<User> getStudents() {
+        return students != null ? students : Collections.<User>emptyList();
     }
 
     /**
-     * Sets the students of the user to the passed-in collection.
+     * Sets the students of the user to the passed-in collection. Duplicates are dropped.
      * @param newStudents the new collection of students
      */
-    public void setStudents(Deque<User> newStudents) {
-        students = newStudents;
+    public void setStudents(Collection<User> newStudents) {
+        students = copyOf(newStudents);
+        if (graph != null)
+            graph.edgesReset();
     }
 
     /**
@@ -78,25 +85,33 @@ public class User {
      * @param u the student to add
      */
     public void addStudent(User u) {
-        if (!isDuplicate(u.id, students)) {
-            students.add(u);
-            u.teachers.add(this);
+        if (students == null)
+            students = new Adjacency();
+        if (students.append(u)) {
+            if (u.teachers == null)
+                u.teachers = new Adjacency();
+            u.teachers.append(this);
+            edgeAdded(u);
         }
     }
 
     /**
-     * @return the list of this user's teachers
+     * Used to return the Deque the user kept its teachers in. The collection returned now is a read-only view:
+     * changing it throws UnsupportedOperationException, so use addTeacher/removeTeacher (or copy it into a Deque).
+     * @return the (read-only) collection of this user's teachers
      */
-    public Deque<User> getTeachers() {
-        return teachers;
+    public Collection<User> getTeachers() {
+        return teachers != null ? teachers : Collections.<User>emptyList();
     }
 
     /**
-     * Sets the teachers of the user to the passed-in collection.
+     * Sets the teachers of the user to the passed-in collection. Duplicates are dropped.
      * @param newTeachers the new collection of teachers
      */
-    public void setTeachers(Deque<User> newTeachers) {
-        teachers = newTeachers;
+    public void setTeachers(Collection<User> newTeachers) {
+        teachers = copyOf(newTeachers);
+        if (graph != null)
+            graph.edgesReset();
     }
 
     /**
@@ -104,19 +119,113 @@ public class User {
      * @param u the teacher to add
      */
     public void addTeacher(User u) {
-        if (!isDuplicate(u.id, teachers)) {
-            teachers.add(u);
-            u.students.add(this);
+        if (teachers == null)
+            teachers = new Adjacency();
+        if (teachers.append(u)) {
+            if (u.students == null)
+                u.students = new Adjacency();
+            u.students.append(this);
+            edgeAdded(u);
         }
     }
 
     /**
-     * Checks for duplicate ids in a collection.
+     * Removes a student from this user's students. If the user is in a graph, the graph's components are updated.
+     * @param u the student to remove
+     * @return  true if u was a student of this user, false otherwise
+     */
+    public boolean removeStudent(User u) {
+        if (students == null || !students.removeId(u.id))
+            return false;
+        if (u.teachers != null)
+            u.teachers.removeId(id);
+        edgeRemoved(u);
+        return true;
+    }
+
+    /**
+     * Removes a teacher from this user's teachers. If the user is in a graph, the graph's components are updated.
+     * @param u the teacher to remove
+     * @return  true if u was a teacher of this user, false otherwise
+     */
+    public boolean removeTeacher(User u) {
+        if (teachers == null || !teachers.removeId(u.id))
+            return false;
+        if (u.students != null)
+            u.students.removeId(id);
+        edgeRemoved(u);
+        return true;
+    }
+
+    /**
+     * Allocates exactly enough room for the passed-in numbers of students and teachers.
+     * Meant for bulk loaders that know every user's degree up front.
+     * @param numStudents the number of students this user will have
+     * @param numTeachers the number of teachers this user will have
+     */
+    void reserve(int numStudents, int numTeachers) {
+        students = numStudents > 0 ? new Adjacency(numStudents) : null;
+        teachers = numTeachers > 0 ? new Adjacency(numTeachers) : null;
+    }
+
+    /**
+     * Adds a student to this user's students without checking for duplicates or updating the graph.
+     * Meant for bulk loaders that have already deduplicated their edges and build the graph afterwards.
+     * @param u the student to add
+     */
+    void addStudentUnchecked(User u) {
+        if (students == null)
+            students = new Adjacency();
+        if (u.teachers == null)
+            u.teachers = new Adjacency();
+        students.appendUnchecked(u);
+        u.teachers.appendUnchecked(this);
+    }
+
+    /**
+     * Lets the graph of this user (or of u, if this user isn't in a graph) know that an edge was added
+     * between this user and u.
+     * @param u the other end of the edge
+     */
+    private void edgeAdded(User u) {
+        UserGraph g = graph != null ? graph : u.graph;
+        if (g != null)
+            g.edgeAdded(this, u);
+    }
+
+    /**
+     * Lets the graph of this user know that an edge between this user and u was removed.
+     * @param u the other end of the edge
+     */
+    private void edgeRemoved(User u) {
+        if (graph != null && graph == u.graph)
+            graph.edgeRemoved(this, u);
+    }
+
+    /**
+     * Copies a collection of users into a tightly sized Adjacency, dropping duplicates.
+     * @param list the users to copy
+     * @return     the copy, or null if list is empty
+     */
+    private static Adjacency copyOf(Collection<User> list) {
+        if (list.isEmpty())
+            return null;
+        Adjacency adjacency = new Adjacency(list.size());
+        for (User u : list)
+            adjacency.append(u);
+        return adjacency;
+    }
+
+    /**
+     * Checks for duplicate ids in a collection. O(1) for this user's own students and teachers
+     * once they are large.
      * @param id   the id to check for
      * @param list the list to check
      * @return     true if id is a duplicate, false otherwise
      */
-    public boolean isDuplicate(int id, Deque<User> list) {
+    public boolean isDuplicate(int id, Collection<User> list) {
+        if (list instanceof Adjacency)
+            return ((Adjacency) list).containsId(id);
         for (User u : list) {
             if (u.id == id)
                 return true;
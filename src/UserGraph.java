@@ -1,6 +1,12 @@
 package src;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Created by mattlim on 11/16/14.
@@ -8,14 +14,45 @@ import java.util.*;
  * maps userIds (Integers) to Users (User objects). The edges in the graph are represented by the
  * lists "students" and "teachers" in each User object. So basically this class represents the graph
  * as an adjacency list.
+ * Infections, plans and other traversals can run on several threads at once, each with its own VisitedSets, and
+ * getEpoch can be called from any thread. Adding or removing users and edges must not run alongside anything else,
+ * and makes earlier plans stale: the trees of a plan are only listed on demand, and listing them after a user or
+ * edge was added or removed throws ConcurrentModificationException rather than returning another component.
  */
 public class UserGraph {
+    // What startTimer returns when metrics are disabled
+    private static final long NOT_TIMED = Long.MIN_VALUE;
+    // What the two searches of edgeRemoved can run into
+    private static final int MET = 1;
+    private static final int EXHAUSTED = -1;
+    // The most plans kept in the plan cache
+    static final int PLAN_CACHE_CAPACITY = 64;
+
     private HashMap<Integer, User> userMap;
     private ArrayList<User> userList;
-    ArrayList<Integer> infectedUserIds = new ArrayList<Integer>();
+    private InfectedSet infectedUsers = new InfectedSet();
+    // The site versions of all users, by dense index
+    private SiteVersionColumn siteVersions;
     // Used to show the graph visualization
-    private GraphView graphView = new GraphView();
+    // Made the first time the graph is shown, so that headless use never loads Swing or JUNG
+    private GraphView graphView;
     private int numUsers;
+    // Connected components of the graph, kept up to date as users and edges are added
+    private ComponentIndex componentIndex;
+    private boolean componentsStale = false;
+    // Each thread reuses its own VisitedSet, so traversals on different threads never share state
+    private final ThreadLocal<VisitedSet> visitedSets = new ThreadLocal<VisitedSet>();
+    // The second VisitedSet of edgeRemoved, which needs two at once; per thread too
+    private final ThreadLocal<VisitedSet> removalVisitedSets = new ThreadLocal<VisitedSet>();
+    // Bumped by every change to the users or edges of the graph; see getEpoch. Volatile, since getEpoch is
+    // called from other threads (e.g. by plan caches and servers).
+    private volatile long structureEpoch;
+    // Plans computed since the graph last changed
+    private final PlanCache planCache = new PlanCache(PLAN_CACHE_CAPACITY);
+    // Where infections are logged before they are applied, if anywhere
+    private RolloutJournal journal;
+    // Where measurements of the graph's operations go. Disabled unless setMetrics is called.
+    private volatile GraphMetrics metrics = GraphMetrics.DISABLED;
 
     /**
      * Default constructor.
@@ -23,6 +60,9 @@ public class UserGraph {
     public UserGraph() {
         userMap = new HashMap<Integer, User>();
         numUsers = 0;
+        userList = new ArrayList<User>();
+        siteVersions = new SiteVersionColumn(16);
+        componentIndex = new ComponentIndex();
     }
 
     /**
@@ -33,6 +73,8 @@ public class UserGraph {
         this.userMap = userMap;
         this.numUsers = userMap.size();
         this.userList = new ArrayList<User>(userMap.values());
+        this.siteVersions = new SiteVersionColumn(userMap.size());
+        buildComponentIndex();
     }
 
     /**
@@ -40,9 +82,213 @@ public class UserGraph {
      * @param newUser the user to add
      */
     public void addUser(User newUser) {
+        if (newUser.graph == this)
+            return;
+        int first = userList.size();
+        register(newUser);
+        // Link up with any neighbors the user already had, pulling in the ones that aren't in the graph yet
+        for (int i = first; i < userList.size(); i++)
+            linkNeighbors(userList.get(i));
+    }
+
+    /**
+     * Puts a user into userMap and userList, and gives it a component of its own.
+     * @param newUser the user to register
+     */
+    private void register(User newUser) {
+        structureEpoch++;
         userMap.put(newUser.getId(), newUser);
         numUsers++;
         userList.add(newUser);
+        siteVersions.add(newUser.getSiteVersion());
+        newUser.graph = this;
+        // A user's index is always its position in userList (and siteVersions). A stale component index is
+        // rebuilt from scratch anyway, so it is left alone until then.
+        if (componentsStale)
+            newUser.index = userList.size() - 1;
+        else
+            newUser.index = componentIndex.add();
+    }
+
+    /**
+     * Merges the component of a user with the components of all its students and teachers. Neighbors that
+     * are not in the graph yet are registered (but not linked - the caller is expected to get to them).
+     * @param u the user whose edges to link
+     */
+    private void linkNeighbors(User u) {
+        for (User v : u.getStudents()) {
+            if (v.graph != this)
+                register(v);
+            if (!componentsStale)
+                componentIndex.union(u.index, v.index);
+        }
+        for (User v : u.getTeachers()) {
+            if (v.graph != this)
+                register(v);
+            if (!componentsStale)
+                componentIndex.union(u.index, v.index);
+        }
+    }
+
+    /**
+     * Called by User whenever an edge is added between two users, at least one of which is in this graph.
+     * Users that are not yet in the graph are added to it, and the component index is updated.
+     * @param a one end of the edge
+     * @param b the other end of the edge
+     */
+    void edgeAdded(User a, User b) {
+        structureEpoch++;
+        if (a.graph != this)
+            addUser(a);
+        if (b.graph != this)
+            addUser(b);
+        if (!componentsStale)
+            componentIndex.union(a.index, b.index);
+    }
+
+    /**
+     * Called by User whenever an edge between two users of this graph is removed. If that disconnects the two
+     * users, their component is split in two. To find out, a BFS is run from each end at the same time, one user
+     * at a time each, until the two meet (still connected) or one of them runs out of users (split, and that one
+     * has found the smaller side). So a split costs time proportional to the smaller side's edges, however big
+     * the other side is, and only the users of the smaller side are moved to a new component.
+     * @param a one end of the edge
+     * @param b the other end of the edge
+     */
+    void edgeRemoved(User a, User b) {
+        structureEpoch++;
+        // A stale index is rebuilt from scratch anyway
+        if (componentsStale || a == b)
+            return;
+        long start = startTimer();
+        VisitedSet seenA = acquireVisitedSet();
+        VisitedSet seenB = acquireVisitedSet(removalVisitedSets);
+        ArrayList<User> queueA = new ArrayList<User>();
+        ArrayList<User> queueB = new ArrayList<User>();
+        seenA.add(a.index);
+        queueA.add(a);
+        seenB.add(b.index);
+        queueB.add(b);
+        int nextA = 0;
+        int nextB = 0;
+        ArrayList<User> smaller = null;
+        while (true) {
+            int result = expand(queueA, nextA++, seenA, seenB);
+            if (result == EXHAUSTED)
+                smaller = queueA;
+            if (result != 0)
+                break;
+            result = expand(queueB, nextB++, seenB, seenA);
+            if (result == EXHAUSTED)
+                smaller = queueB;
+            if (result != 0)
+                break;
+        }
+        if (smaller != null) {
+            int[] members = new int[smaller.size()];
+            for (int k = 0; k < members.length; k++)
+                members[k] = smaller.get(k).index;
+            componentIndex.split(members, members.length);
+        }
+        if (start != NOT_TIMED) {
+            metrics.recordTraversal("edgeRemoved", queueA.size() + queueB.size(), 0);
+            stopTimer("edgeRemoved", start);
+        }
+    }
+
+    /**
+     * Expands one user of a BFS for edgeRemoved.
+     * @param queue the users found by the BFS so far
+     * @param next  the position in queue of the user to expand
+     * @param seen  the users found by the BFS
+     * @param other the users found by the BFS from the other end
+     * @return      MET if the BFS reached a user found by the other one, EXHAUSTED if it has no users left to
+     *              expand, 0 otherwise
+     */
+    private static int expand(ArrayList<User> queue, int next, VisitedSet seen, VisitedSet other) {
+        if (next == queue.size())
+            return EXHAUSTED;
+        User u = queue.get(next);
+        for (int k = 0; k < 2; k++) {
+            for (User v : k == 0 ? u.getStudents() : u.getTeachers()) {
+                if (other.contains(v.index))
+                    return MET;
+                if (seen.add(v.index))
+                    queue.add(v);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Removes a user, and all its edges, from the graph. Components that lose their connection through the user
+     * are split (see edgeRemoved). The user with the highest index takes over the removed user's index.
+     * @param userId the userId of the user to remove
+     * @return       the removed user (with no students or teachers left), or null if userId is not valid
+     */
+    public User removeUser(int userId) {
+        User user = userMap.get(userId);
+        if (user == null)
+            return null;
+        structureEpoch++;
+        for (User student : user.getStudents().toArray(new User[0]))
+            user.removeStudent(student);
+        for (User teacher : user.getTeachers().toArray(new User[0]))
+            user.removeTeacher(teacher);
+
+        int i = user.index;
+        int last = userList.size() - 1;
+        User moved = userList.get(last);
+        userMap.remove(userId);
+        numUsers--;
+        userList.set(i, moved);
+        userList.remove(last);
+        moved.index = i;
+        infectedUsers.remove(i);
+        if (i != last)
+            infectedUsers.move(last, i);
+        if (!componentsStale)
+            componentIndex.remove(i);
+        int siteVersion = siteVersions.get(i);
+        siteVersions.remove(i);
+        user.graph = null;
+        user.index = -1;
+        // The user keeps its site version once it is out of the column
+        user.setSiteVersion(siteVersion);
+        return user;
+    }
+
+    /**
+     * Called by User when its students or teachers are replaced wholesale. The component index can't
+     * undo merges, so it is rebuilt from scratch the next time it is needed.
+     */
+    void edgesReset() {
+        structureEpoch++;
+        componentsStale = true;
+    }
+
+    /**
+     * @return the mutation epoch of the graph: a number that goes up whenever a user or edge is added or removed,
+     *         or a site version changes. Two calls that return the same epoch saw the same graph.
+     */
+    public long getEpoch() {
+        return structureEpoch + siteVersions.getModCount();
+    }
+
+    /**
+     * @return a number that goes up whenever a user or edge is added or removed (unlike getEpoch, not when a site
+     *         version changes)
+     */
+    long getStructureEpoch() {
+        return structureEpoch;
+    }
+
+    /**
+     * @return the cache of plans made by planLimitedInfection and planLimitedInfectionSmart, with its hit and
+     *         miss counts
+     */
+    public PlanCache getPlanCache() {
+        return planCache;
     }
 
     /**
@@ -64,6 +310,111 @@ public class UserGraph {
         return userList;
     }
 
+    /**
+     * @return the site versions of all users, by dense user index, with the number of users on each version
+     */
+    public SiteVersionColumn getSiteVersions() {
+        return siteVersions;
+    }
+
+    /**
+     * @return the set of users infected so far, by dense user index
+     */
+    public InfectedSet getInfectedUsers() {
+        return infectedUsers;
+    }
+
+    /**
+     * Sets where measurements of this graph's operations (latencies, traversal sizes, allocations and infections)
+     * are recorded.
+     * @param metrics the metrics to record to, or GraphMetrics.DISABLED to stop recording
+     */
+    public void setMetrics(GraphMetrics metrics) {
+        this.metrics = metrics == null ? GraphMetrics.DISABLED : metrics;
+    }
+
+    /**
+     * @return where measurements of this graph's operations are recorded
+     */
+    public GraphMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the journal that every infection is logged to (before any user is changed), so it can be rolled back
+     * with rollback and recovered with replay. If writing to the journal fails, the infection method throws an
+     * UncheckedIOException and no user is changed.
+     * @param journal the journal to log to, or null to stop logging
+     */
+    public void setJournal(RolloutJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * @return the journal infections are logged to, or null if there is none
+     */
+    public RolloutJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * @return the id of the last rollout logged to the journal, or -1 if there is none
+     */
+    public int getLastRolloutId() {
+        return journal == null ? -1 : journal.getNumRollouts() - 1;
+    }
+
+    /**
+     * Rolls back a rollout logged to the journal: every user of the rollout that is still on the rollout's site
+     * version is put back on the version it had before, and stops counting as infected. Users that have moved on
+     * to another version since are left alone. The rollback is logged to the journal before any user is changed.
+     * @param rolloutId the id of the rollout
+     * @return          true if the rollout was rolled back, false if there is no journal, no such rollout, or
+     *                  the rollout was already rolled back
+     * @throws IOException if the journal can't be read or written
+     */
+    public boolean rollback(int rolloutId) throws IOException {
+        if (journal == null || rolloutId < 0 || rolloutId >= journal.getNumRollouts()
+                || journal.isRolledBack(rolloutId))
+            return false;
+        long start = startTimer();
+        journal.appendRollback(rolloutId);
+        journal.readRollout(rolloutId, new RollbackVisitor());
+        stopTimer("rollback", start);
+        return true;
+    }
+
+    /**
+     * Replays a journal onto the graph, e.g. to recover after a crash: the graph is reloaded as it was when the
+     * journal was started (say from a GraphSnapshotFile), and every rollout and rollback in the journal is then
+     * applied in order. Users that are no longer in the graph are skipped. Nothing is logged while replaying.
+     * @param journal the journal to replay
+     * @throws IOException if the journal can't be read
+     */
+    public void replay(final RolloutJournal journal) throws IOException {
+        long start = startTimer();
+        journal.replay(new RolloutJournal.Visitor() {
+            private int newVersion;
+
+            public void rollout(int rolloutId, int version) {
+                newVersion = version;
+            }
+
+            public void user(int userId, int oldVersion) {
+                User user = userMap.get(userId);
+                if (user != null) {
+                    user.setSiteVersion(newVersion);
+                    infectedUsers.add(user.index, newVersion);
+                }
+            }
+
+            public void rollback(int rolloutId) throws IOException {
+                journal.readRollout(rolloutId, new RollbackVisitor());
+            }
+        });
+        stopTimer("replay", start);
+    }
+
     /**
      * Does a simple limited infection of the graph. It will stop infecting the graph as soon
      * as the passed in limit is reached (or if the connected component has been totally infected),
@@ -76,83 +427,232 @@ public class UserGraph {
      */
     public boolean limitedInfection(int userId, int siteVersion, int limit) {
         if (userMap.containsKey(userId)) {
+            long start = startTimer();
             User sourceUser = userMap.get(userId);
-            ArrayList<UserTree> trees = getUserTreeList(sourceUser);
-            infectTrees(trees, siteVersion, limit);
+            ComponentIterator users = new ComponentIterator(this, sourceUser);
+            infectUsers(users, siteVersion, limit);
+            if (start != NOT_TIMED) {
+                metrics.recordTraversal("limitedInfection", users.getUsersVisited(), users.getEdgesVisited());
+                stopTimer("limitedInfection", start);
+            }
             return true;
         }
         return false;
     }
 
     /**
-     * Does a smarter/contained limited infection of the graph. This method gets all the
-     * trees of the graph, and finds the tree that has the number of vertices closest to the passed-in
-     * limit parameter. It then completely infects that tree.
+     * Does a smarter/contained limited infection of the graph. This method finds the tree of the graph that has
+     * the number of vertices closest to the passed-in limit parameter (looked up by size in the component index,
+     * in O(log #trees)). It then completely infects that tree.
      * @param siteVersion the siteVersion to infect users with
      * @param limit       the limit on number of users to infect. In this case, not a hard limit.
      * @return            true if infection succeeded, false otherwise
      */
     public boolean limitedInfectionSmart(int siteVersion, int limit) {
-        ArrayList<UserTree> trees = getTrees(userList);
-        int minDiff = Integer.MAX_VALUE;
-        UserTree sourceTree = null;
-        int newLimit = limit;
-        for (UserTree tree : trees) {
-            int userDiff = Math.abs(limit - tree.getNumUsers());
-            if (userDiff < minDiff) {
-                minDiff = userDiff;
-                sourceTree = tree;
-                newLimit = tree.getNumUsers();
-            }
-        }
-        if (sourceTree != null) {
-            ArrayList<UserTree> treeList = new ArrayList<UserTree>();
-            treeList.add(sourceTree);
-            infectTrees(treeList, siteVersion, newLimit);
+        long start = startTimer();
+        try {
+            InfectionPlan plan = planLimitedInfectionSmart(limit);
+            if (plan.getTrees().isEmpty())
+                return false;
+            infectTrees(plan.getTrees(), siteVersion, plan.getNumUsers());
             return true;
+        } finally {
+            // Failed calls are timed too
+            stopTimer("limitedInfectionSmart", start);
+        }
+    }
+
+    /**
+     * Plans a smart limited infection without infecting anything: the plan is the single tree whose size is
+     * closest to "limit" (the larger one on a tie). Cheap enough to ask many "what if" questions, and cached
+     * (see getPlanCache) until the graph changes.
+     * @param limit the number of users to infect
+     * @return      the plan, which has no trees if the graph is empty
+     */
+    public InfectionPlan planLimitedInfectionSmart(int limit) {
+        long epoch = getEpoch();
+        InfectionPlan plan = planCache.get(PlanCache.Strategy.SMART, limit, epoch);
+        if (plan != null)
+            return plan;
+        ensureComponentIndex();
+        ArrayList<UserTree> trees = new ArrayList<UserTree>();
+        int leader = componentIndex.findNearestSize(limit);
+        if (leader < 0) {
+            plan = new InfectionPlan(trees, 0, limit);
         } else {
-            return false;
+            trees.add(new UserTree(this, leader, componentIndex.getComponentSize(leader)));
+            plan = new InfectionPlan(trees, componentIndex.getComponentSize(leader), limit);
         }
+        planCache.put(PlanCache.Strategy.SMART, limit, epoch, plan);
+        return plan;
     }
 
     /**
-     * Tries to do the smartest limited infection of the graph. Calls a helper method to do the actual work.
-     * See overloaded method below for more details.
+     * Tries to do the smartest limited infection of the graph. This method looks for a combination of trees of
+     * the graph that covers exactly "limit" users, and totally infects those trees. See SubsetSumPlanner for how
+     * the combination is found.
      * @param siteVersion the siteVersion to infect users with
-     * @param limit       the limit on number of users to infect
-     * @return            true if exactly "limit" number of users can be infected, false otherwise
+     * @param limit       the limit on number of users to infect. In this case, this is exactly enforced
+     * @return            true if exactly "limit" number of users can be (and were) infected, false otherwise
      */
     public boolean limitedInfectionRecursive(int siteVersion, int limit) {
-        return limitedInfectionRecursive(siteVersion, limit, getTrees(userList), new ArrayList<UserTree>());
+        long start = startTimer();
+        try {
+            InfectionPlan plan = planLimitedInfection(limit);
+            if (!plan.isExact())
+                return false;
+            infectTrees(plan.getTrees(), siteVersion, Integer.MAX_VALUE);
+            return true;
+        } finally {
+            // Failed calls are timed too
+            stopTimer("limitedInfectionRecursive", start);
+        }
     }
 
     /**
-     * Tries to do the smartest limited infection of the graph. This method tries all possible combinations
-     * of infecting different trees of the graph, in an attempt to infect exactly "limit" number of users.
-     * Since it gets a list of trees that are sorted in descending order, it tends to select combinations
-     * such that the first tree covers a large number of nodes.
-     * @param siteVersion    the siteVersion to infect users with
-     * @param limit          the limit on number of users to infect. In this case, this is exactly enforced
-     * @param remainingTrees the trees that have not yet been considered
-     * @param removedTrees   the trees that have been considered (and thus removed)
-     * @return               true if exactly "limit" number of users can be infected, false otherwise
+     * Plans a limited infection of whole trees without infecting anything. The plan covers exactly "limit" users
+     * if any combination of trees does, and otherwise the achievable number of users nearest to "limit".
+     * Plans are cached (see getPlanCache), so asking again before the graph changes is a single lookup.
+     * @param limit the number of users to infect
+     * @return      the plan
      */
-    private boolean limitedInfectionRecursive(int siteVersion, int limit, ArrayList<UserTree> remainingTrees,
-                                             ArrayList<UserTree> removedTrees) {
-        if (limit == 0) {
-            infectTrees(removedTrees, siteVersion, Integer.MAX_VALUE);
-            System.out.println("numTrees = " + removedTrees.size());
-            return true;
+    public InfectionPlan planLimitedInfection(int limit) {
+        long start = startTimer();
+        long epoch = getEpoch();
+        InfectionPlan plan = planCache.get(PlanCache.Strategy.EXACT, limit, epoch);
+        if (plan != null) {
+            stopTimer("planLimitedInfectionCached", start);
+            return plan;
+        }
+        ArrayList<UserTree> trees = getTrees();
+        plan = SubsetSumPlanner.plan(trees, limit);
+        planCache.put(PlanCache.Strategy.EXACT, limit, epoch, plan);
+        if (start != NOT_TIMED) {
+            metrics.recordComponentsScanned("planLimitedInfection", trees.size());
+            stopTimer("planLimitedInfection", start);
         }
-        for (int i = 0; i < remainingTrees.size(); i++) {
-            int userDiff = limit - remainingTrees.get(i).getNumUsers();
-            if (userDiff >= 0) {
-                ArrayList<UserTree> newTrees = new ArrayList<UserTree>(remainingTrees);
-                removedTrees.add(newTrees.remove(i));
-                return limitedInfectionRecursive(siteVersion, userDiff, newTrees, removedTrees);
+        return plan;
+    }
+
+    /**
+     * Runs several rollouts at once. The trees of the graph are listed once, and every rollout is given its own
+     * trees, so no user is infected by more than one rollout of the batch. Rollouts with a seed user get the whole
+     * tree of that user first (even if it is bigger than their target), and all rollouts are then topped up
+     * towards their target with SubsetSumPlanner, in the order they were passed in. Each top-up only plans over
+     * the trees no rollout has claimed yet, which shrink as the batch goes on. All infections are applied together
+     * once every rollout has been planned.
+     * @param requests the rollouts to run
+     * @return         a report for every request, in the same order
+     */
+    public ArrayList<RolloutReport> infectRollouts(List<RolloutRequest> requests) {
+        long start = startTimer();
+        ensureComponentIndex();
+        ArrayList<UserTree> trees = getTrees();
+        BitSet taken = new BitSet();
+        ArrayList<ArrayList<UserTree>> chosen = new ArrayList<ArrayList<UserTree>>(requests.size());
+        boolean[] seedIncluded = new boolean[requests.size()];
+
+        // Seeds first, so that a seed's tree can't be handed to an unseeded rollout
+        for (int r = 0; r < requests.size(); r++) {
+            ArrayList<UserTree> rolloutTrees = new ArrayList<UserTree>();
+            Integer seedUserId = requests.get(r).getSeedUserId();
+            User seed = seedUserId == null ? null : userMap.get(seedUserId);
+            if (seed != null) {
+                int leader = componentIndex.find(seed.index);
+                if (!taken.get(leader)) {
+                    taken.set(leader);
+                    rolloutTrees.add(new UserTree(this, leader, componentIndex.getComponentSize(leader)));
+                    seedIncluded[r] = true;
+                }
             }
+            chosen.add(rolloutTrees);
         }
-        return false;
+
+        // The trees no rollout has claimed, in descending order of size
+        ArrayList<UserTree> available = new ArrayList<UserTree>(trees.size());
+        for (UserTree tree : trees) {
+            if (!taken.get(tree.getLeader()))
+                available.add(tree);
+        }
+        ArrayList<RolloutReport> reports = new ArrayList<RolloutReport>(requests.size());
+        for (int r = 0; r < requests.size(); r++) {
+            RolloutRequest request = requests.get(r);
+            ArrayList<UserTree> rolloutTrees = chosen.get(r);
+            int numUsers = 0;
+            for (UserTree tree : rolloutTrees)
+                numUsers += tree.getNumUsers();
+            if (numUsers < request.getTargetSize() && !available.isEmpty()) {
+                InfectionPlan topUp = SubsetSumPlanner.plan(available, request.getTargetSize() - numUsers);
+                if (!topUp.getTrees().isEmpty()) {
+                    for (UserTree tree : topUp.getTrees()) {
+                        taken.set(tree.getLeader());
+                        rolloutTrees.add(tree);
+                    }
+                    removeTaken(available, taken);
+                }
+                numUsers += topUp.getNumUsers();
+            }
+            InfectionPlan plan = new InfectionPlan(rolloutTrees, numUsers, request.getTargetSize());
+            reports.add(new RolloutReport(request, plan, seedIncluded[r]));
+        }
+
+        for (RolloutReport report : reports)
+            infectTrees(report.getPlan().getTrees(), report.getRequest().getSiteVersion(), Integer.MAX_VALUE);
+        if (start != NOT_TIMED) {
+            metrics.recordComponentsScanned("infectRollouts", trees.size());
+            stopTimer("infectRollouts", start);
+        }
+        return reports;
+    }
+
+    /**
+     * Removes the trees whose leaders are taken from a list of trees, keeping the others in order.
+     */
+    private static void removeTaken(ArrayList<UserTree> trees, BitSet taken) {
+        int kept = 0;
+        for (int k = 0; k < trees.size(); k++) {
+            UserTree tree = trees.get(k);
+            if (!taken.get(tree.getLeader()))
+                trees.set(kept++, tree);
+        }
+        trees.subList(kept, trees.size()).clear();
+    }
+
+    /**
+     * Infects part of the component of a user: exactly "limit" users of it (or all of it, if it is smaller),
+     * including the user, picked so as to cut as few student/teacher edges as possible. Unlike limitedInfection,
+     * which cuts the component wherever a BFS happens to reach the limit, this keeps classrooms together as much as
+     * possible. See ComponentPartitioner for how the users are picked; it takes about O(E log V) time for a
+     * component with E edges.
+     * @param userId      the userId of the user to start from
+     * @param siteVersion the siteVersion to infect users with
+     * @param limit       the number of users to infect
+     * @return            true if userId is valid, false otherwise
+     */
+    public boolean partialInfection(int userId, int siteVersion, int limit) {
+        InfectionPlan plan = planPartialInfection(userId, limit);
+        if (plan == null)
+            return false;
+        infectTrees(plan.getTrees(), siteVersion, Integer.MAX_VALUE);
+        return true;
+    }
+
+    /**
+     * Plans a partial infection without infecting anything. The plan has a single tree, which holds the picked users.
+     * @param userId the userId of the user to start from
+     * @param limit  the number of users to infect
+     * @return       the plan, or null if userId is not valid
+     */
+    public InfectionPlan planPartialInfection(int userId, int limit) {
+        User user = userMap.get(userId);
+        if (user == null)
+            return null;
+        long start = startTimer();
+        ArrayList<User> users = ComponentPartitioner.partition(this, user, limit);
+        ArrayList<UserTree> trees = new ArrayList<UserTree>();
+        trees.add(new UserTree(users));
+        stopTimer("planPartialInfection", start);
+        return new InfectionPlan(trees, users.size(), limit);
     }
 
     /**
@@ -163,14 +663,212 @@ public class UserGraph {
      */
     public boolean totalInfection(int userId, int siteVersion) {
         if (userMap.containsKey(userId)) {
+            long start = startTimer();
             User sourceUser = userMap.get(userId);
             ArrayList<UserTree> trees = getUserTreeList(sourceUser);
             infectTrees(trees, siteVersion, Integer.MAX_VALUE);
+            stopTimer("totalInfection", start);
             return true;
         }
         return false;
     }
 
+    /**
+     * Moves every user on one site version to another, e.g. to retire a version once it is rolled out. This is an
+     * infection like any other: it is logged to the journal as one rollout (so it can be rolled back), and the
+     * moved users count as infected with the new site version.
+     * @param from the site version to move users off
+     * @param to   the site version to move them to
+     * @return     the number of users moved
+     */
+    public int moveSiteVersion(int from, int to) {
+        if (from == to)
+            return siteVersions.count(from);
+        long start = startTimer();
+        int[] moved;
+        // Held throughout, so no user changes version between being logged and being moved
+        synchronized (siteVersions) {
+            moved = siteVersions.indicesOf(from);
+            if (moved.length == 0) {
+                stopTimer("moveSiteVersion", start);
+                return 0;
+            }
+            if (journal != null) {
+                ArrayList<User> users = new ArrayList<User>(moved.length);
+                for (int index : moved)
+                    users.add(userList.get(index));
+                logRollout(users, to);
+            }
+            siteVersions.moveAll(from, to);
+        }
+        for (int index : moved)
+            infectedUsers.add(index, to);
+        if (metrics.isEnabled())
+            metrics.recordInfected(to, moved.length);
+        stopTimer("moveSiteVersion", start);
+        return moved.length;
+    }
+
+    /**
+     * Freezes the graph into an immutable CSR snapshot. Traversals over the snapshot work on primitive arrays
+     * instead of User objects, which is much faster (and much lighter on the heap) for large graphs.
+     * The snapshot does not see users or edges added after it was taken.
+     * @return a snapshot of the graph
+     */
+    public UserGraphSnapshot snapshot() {
+        long start = startTimer();
+        UserGraphSnapshot snapshot = new UserGraphSnapshot(userMap.values());
+        stopTimer("snapshot", start);
+        return snapshot;
+    }
+
+    /**
+     * Builds a full UserGraph out of a snapshot, e.g. one opened with GraphSnapshotFile.open. Unlike the snapshot
+     * itself, the graph can be changed.
+     * @param snapshot the snapshot to build the graph from
+     * @return         a graph with the users, site versions and edges of the snapshot
+     */
+    public static UserGraph fromSnapshot(GraphSnapshot snapshot) {
+        int numUsers = snapshot.getNumUsers();
+        User[] users = new User[numUsers];
+        HashMap<Integer, User> userMap = new HashMap<Integer, User>(numUsers * 4 / 3 + 1);
+        for (int i = 0; i < numUsers; i++) {
+            users[i] = new User(snapshot.getUserId(i), snapshot.getSiteVersion(i));
+            users[i].reserve(snapshot.getNumStudents(i), snapshot.getNumTeachers(i));
+            userMap.put(users[i].getId(), users[i]);
+        }
+        // The edges of a snapshot are already distinct, so they skip the duplicate checks of addStudent
+        for (int i = 0; i < numUsers; i++) {
+            for (int e = snapshot.getStudentOffset(i); e < snapshot.getStudentOffset(i + 1); e++)
+                users[i].addStudentUnchecked(users[snapshot.getStudentTarget(e)]);
+        }
+        return new UserGraph(userMap);
+    }
+
+    /**
+     * Same as limitedInfection(userId, siteVersion, limit), but traverses the passed-in snapshot instead of
+     * the User objects. Only the users reached by the traversal are looked up in the graph, and those that have
+     * been removed from it since the snapshot was taken are skipped (the traversal still follows their edges).
+     * @param snapshot    a snapshot of this graph
+     * @param userId      the userId to start the limited infection from
+     * @param siteVersion the siteVersion to infect users with
+     * @param limit       the limit on number of users to infect
+     * @return            true if userId is valid, false if not
+     */
+    public boolean limitedInfection(GraphSnapshot snapshot, int userId, int siteVersion, int limit) {
+        int source = snapshot.indexOf(userId);
+        if (source >= 0 && userMap.containsKey(userId)) {
+            long start = startTimer();
+            infectTrees(getSnapshotTreeList(snapshot, source, limit), siteVersion, limit);
+            stopTimer("limitedInfectionSnapshot", start);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Same as totalInfection(userId, siteVersion), but traverses the passed-in snapshot instead of
+     * the User objects.
+     * @param snapshot    a snapshot of this graph
+     * @param userId      the userId to start the total infection from
+     * @param siteVersion the siteVersion to infect users with
+     * @return            true if userId is valid, false otherwise
+     */
+    public boolean totalInfection(GraphSnapshot snapshot, int userId, int siteVersion) {
+        return limitedInfection(snapshot, userId, siteVersion, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Gets all the trees (connected components) of the passed-in snapshot, sorted in descending order of size.
+     * Users that have been removed from the graph since the snapshot was taken are left out of their trees.
+     * @param snapshot a snapshot of this graph
+     * @return         the trees of the snapshot
+     */
+    public ArrayList<UserTree> getTrees(GraphSnapshot snapshot) {
+        long start = startTimer();
+        ArrayList<UserTree> trees = getTrees(snapshot, snapshot.getComponentLabels());
+        stopTimer("getSnapshotTrees", start);
+        return trees;
+    }
+
+    /**
+     * Same as getTrees(snapshot), but labels the components of the snapshot in parallel on the passed-in pool.
+     * Worth it for graphs with millions of edges.
+     * @param snapshot a snapshot of this graph
+     * @param pool     the pool to label the components on
+     * @return         the trees of the snapshot, sorted in descending order of size
+     */
+    public ArrayList<UserTree> getTrees(GraphSnapshot snapshot, ForkJoinPool pool) {
+        long start = startTimer();
+        ArrayList<UserTree> trees = getTrees(snapshot, ParallelComponents.label(snapshot, pool));
+        stopTimer("getSnapshotTreesParallel", start);
+        return trees;
+    }
+
+    /**
+     * Groups the users of a snapshot into trees by their component labels.
+     * @param snapshot a snapshot of this graph
+     * @param labels   the component label of every user of the snapshot
+     * @return         the trees, sorted in descending order of size
+     */
+    private ArrayList<UserTree> getTrees(GraphSnapshot snapshot, int[] labels) {
+        int numComponents = 0;
+        for (int label : labels)
+            numComponents = Math.max(numComponents, label + 1);
+        int[] sizes = new int[numComponents];
+        for (int label : labels)
+            sizes[label]++;
+        ArrayList<ArrayList<User>> treeLists = new ArrayList<ArrayList<User>>(numComponents);
+        for (int size : sizes)
+            treeLists.add(new ArrayList<User>(size));
+        for (int i = 0; i < labels.length; i++) {
+            // Users removed from the graph since the snapshot was taken are left out
+            User user = userMap.get(snapshot.getUserId(i));
+            if (user != null)
+                treeLists.get(labels[i]).add(user);
+        }
+        ArrayList<UserTree> userTrees = new ArrayList<UserTree>(numComponents);
+        for (ArrayList<User> treeList : treeLists) {
+            if (!treeList.isEmpty())
+                userTrees.add(new UserTree(treeList));
+        }
+        Collections.sort(userTrees, Collections.reverseOrder());
+        if (metrics.isEnabled()) {
+            metrics.recordComponentsScanned("getSnapshotTrees", numComponents);
+            metrics.recordAllocation("UserTree", numComponents);
+        }
+        return userTrees;
+    }
+
+    /**
+     * Returns a list holding the single tree reached by a BFS over the snapshot from source, cut off at limit users.
+     * This is to get something to pass into the method infectTrees.
+     * @param snapshot a snapshot of this graph
+     * @param source   the dense index of the user to start from
+     * @param limit    the maximum number of users in the tree
+     */
+    private ArrayList<UserTree> getSnapshotTreeList(GraphSnapshot snapshot, int source, int limit) {
+        int[] reached = snapshot.bfs(source, limit);
+        if (metrics.isEnabled()) {
+            long edgesVisited = 0;
+            for (int index : reached) {
+                edgesVisited += snapshot.getStudentOffset(index + 1) - snapshot.getStudentOffset(index);
+                edgesVisited += snapshot.getTeacherOffset(index + 1) - snapshot.getTeacherOffset(index);
+            }
+            metrics.recordTraversal("limitedInfectionSnapshot", reached.length, edgesVisited);
+        }
+        ArrayList<User> users = new ArrayList<User>(reached.length);
+        for (int index : reached) {
+            // Users removed from the graph since the snapshot was taken are skipped
+            User user = userMap.get(snapshot.getUserId(index));
+            if (user != null)
+                users.add(user);
+        }
+        ArrayList<UserTree> trees = new ArrayList<UserTree>();
+        trees.add(new UserTree(users));
+        return trees;
+    }
+
     /**
      * Infects the graph by infecting the passed in trees
      * @param trees       the trees to infect
@@ -179,111 +877,442 @@ public class UserGraph {
      * @return            the number of users infected
      */
     private int infectTrees(ArrayList<UserTree> trees, int siteVersion, int limit) {
-        int count = 0;
-        boolean breakFlag = false;
-        for (UserTree tree : trees) {
-            for (User user : tree.users) {
-                if (count >= limit)
-                    breakFlag = true;
-                if (breakFlag)
+        if (journal != null) {
+            // The whole call is logged as one rollout
+            ArrayList<User> users = new ArrayList<User>();
+            for (UserTree tree : trees) {
+                if (users.size() >= limit)
                     break;
-                user.setSiteVersion(siteVersion);
-                infectedUserIds.add(user.getId());
-                count++;
+                users.addAll(tree.getUsers());
             }
-            if (breakFlag)
+            return infectUsers(users.iterator(), siteVersion, limit);
+        }
+        int count = 0;
+        for (UserTree tree : trees) {
+            if (count >= limit)
                 break;
+            count += infectUsers(tree.getUsers().iterator(), siteVersion, limit - count);
+        }
+        return count;
+    }
+
+    /**
+     * Infects the users handed out by the passed in iterator, stopping as soon as limit users have been
+     * infected. Nothing more is taken from the iterator after that, so a lazy iterator does no extra work.
+     * @param users       the users to infect
+     * @param siteVersion the siteVersion to infect users with
+     * @param limit       the limit on number of users to infect
+     * @return            the number of users infected
+     */
+    private int infectUsers(Iterator<User> users, int siteVersion, int limit) {
+        if (journal != null) {
+            ArrayList<User> batch = new ArrayList<User>();
+            while (batch.size() < limit && users.hasNext())
+                batch.add(users.next());
+            logRollout(batch, siteVersion);
+            users = batch.iterator();
         }
+        int count = 0;
+        while (count < limit && users.hasNext()) {
+            User user = users.next();
+            user.setSiteVersion(siteVersion);
+            infectedUsers.add(user.index, siteVersion);
+            count++;
+        }
+        if (count > 0 && metrics.isEnabled())
+            metrics.recordInfected(siteVersion, count);
         return count;
     }
 
+    /**
+     * Logs a rollout to the journal, unless there are no users in it.
+     * @param users       the users about to be infected
+     * @param siteVersion the siteVersion they are about to be infected with
+     * @throws UncheckedIOException if the journal can't be written
+     */
+    private void logRollout(ArrayList<User> users, int siteVersion) {
+        if (users.isEmpty())
+            return;
+        long start = startTimer();
+        int[] userIds = new int[users.size()];
+        int[] oldVersions = new int[users.size()];
+        for (int i = 0; i < userIds.length; i++) {
+            User user = users.get(i);
+            userIds[i] = user.getId();
+            oldVersions[i] = user.getSiteVersion();
+        }
+        try {
+            journal.appendRollout(siteVersion, userIds, oldVersions, userIds.length);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not log rollout to the journal", e);
+        }
+        stopTimer("journalAppend", start);
+    }
+
     /**
      * Returns a list of trees for the passed in user (will just be one tree).
-     * This is to get something to pass into the method infectTrees.
+     * This is to get something to pass into the method infectTrees. Answered from the component index,
+     * so the users of the tree are in no particular order.
      * @param user the user to get the list of trees for
      */
     private ArrayList<UserTree> getUserTreeList(User user) {
-        ArrayList<User> users = new ArrayList<User>();
-        users.add(user);
-        ArrayList<UserTree> trees = getTrees(users);
+        ensureComponentIndex();
+        int leader = componentIndex.find(user.index);
+        ArrayList<UserTree> trees = new ArrayList<UserTree>();
+        trees.add(new UserTree(this, leader, componentIndex.getComponentSize(leader)));
         return trees;
     }
 
     /**
-     * Gets a list of trees in the graph that cover at least the list of passed in users.
-     * @param users the list of users that the list of trees must cover
-     * @return      a list of trees that covers the passed in list of users
-     */
-    private ArrayList<UserTree> getTrees(ArrayList<User> users) {
-        setUserColors(User.Color.WHITE);
-        ArrayList<UserTree> userTrees = new ArrayList<UserTree>();
-        for (User user : users) {
-            ArrayList<User> treeList = new ArrayList<User>();
-            Deque<User> queue = new ArrayDeque<User>();
-            if (user.color == User.Color.WHITE)
-                queue.addLast(user);
-            while (!queue.isEmpty()) {
-                User u = queue.pollFirst();
-                treeList.add(u);
-                for (User v : u.getStudents()) {
-                    if (v.color == User.Color.WHITE) {
-                        v.color = User.Color.GREY;
-                        queue.addLast(v);
-                    }
-                }
-                for (User v : u.getTeachers()) {
-                    if (v.color == User.Color.WHITE) {
-                        v.color = User.Color.GREY;
-                        queue.addLast(v);
-                    }
-                }
-                u.color = User.Color.BLACK;
-            }
-            if (!treeList.isEmpty()) {
-                UserTree userTree = new UserTree(treeList);
-                userTrees.add(userTree);
-            }
+     * Gets all the trees in the graph, sorted in descending order of size. Answered from the component index,
+     * so this takes O(#trees log #trees) rather than a traversal of the graph.
+     * @return a list of all trees in the graph
+     */
+    private ArrayList<UserTree> getTrees() {
+        ensureComponentIndex();
+        int numComponents = componentIndex.getNumComponents();
+        ArrayList<UserTree> userTrees = new ArrayList<UserTree>(numComponents);
+        for (int k = 0; k < numComponents; k++) {
+            int leader = componentIndex.getLeader(k);
+            userTrees.add(new UserTree(this, leader, componentIndex.getComponentSize(leader)));
         }
         Collections.sort(userTrees, Collections.reverseOrder());
+        if (metrics.isEnabled())
+            metrics.recordAllocation("UserTree", numComponents);
         return userTrees;
     }
 
     /**
-     * Sets the color of every user in the graph to the passed in color.
-     * @param color the color to use
+     * @param leader the leader of a component in the component index
+     * @return       the first user of the component
+     */
+    User getComponentHead(int leader) {
+        return userList.get(componentIndex.getHead(leader));
+    }
+
+    /**
+     * Lists the users in the component led by the passed-in leader.
+     * @param leader the index of the component's leader
+     * @return       the users of the component
+     */
+    ArrayList<User> getComponentUsers(int leader) {
+        ArrayList<User> users = new ArrayList<User>(componentIndex.getComponentSize(leader));
+        for (int i = componentIndex.getHead(leader); i != -1; i = componentIndex.getNext(i))
+            users.add(userList.get(i));
+        if (metrics.isEnabled())
+            metrics.recordAllocation("componentUserList", users.size());
+        return users;
+    }
+
+    /**
+     * Iterates over the users in the component of a user by following the component index, so nothing is
+     * copied however big the component is. The users are in no particular order, and the graph must not be
+     * changed while iterating.
+     * @param user a user in this graph
+     * @return     an iterator over the users of its component
+     */
+    Iterator<User> getComponentIterator(User user) {
+        ensureComponentIndex();
+        final int leader = componentIndex.find(user.index);
+        return new Iterator<User>() {
+            private int next = componentIndex.getHead(leader);
+
+            public boolean hasNext() {
+                return next != -1;
+            }
+
+            public User next() {
+                if (next == -1)
+                    throw new NoSuchElementException();
+                User u = userList.get(next);
+                next = componentIndex.getNext(next);
+                return u;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Counts the infected users of a tree. Trees from the component index are counted without listing their users.
+     * @param tree a tree of this graph
+     * @return     the number of infected users in the tree
+     */
+    int countInfected(UserTree tree) {
+        int count = 0;
+        int leader = tree.getLeader();
+        if (leader < 0) {
+            for (User user : tree.getUsers()) {
+                if (infectedUsers.contains(user.index))
+                    count++;
+            }
+            return count;
+        }
+        for (int i = componentIndex.getHead(leader); i != -1; i = componentIndex.getNext(i)) {
+            if (infectedUsers.contains(i))
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Rebuilds the component index if users' edges have been replaced since it was last built.
+     */
+    private synchronized void ensureComponentIndex() {
+        if (componentsStale) {
+            long start = startTimer();
+            buildComponentIndex();
+            stopTimer("buildComponentIndex", start);
+        }
+    }
+
+    /**
+     * Builds the component index from scratch. Any users reachable from the graph that are not in it yet
+     * are added to it along the way.
+     */
+    private void buildComponentIndex() {
+        componentsStale = false;
+        componentIndex = new ComponentIndex(userList.size());
+        for (int i = 0; i < userList.size(); i++) {
+            User u = userList.get(i);
+            // Users that are new to the graph bring their site version along; the others keep their index
+            if (u.graph != this)
+                siteVersions.add(u.getSiteVersion());
+            u.graph = this;
+            u.index = componentIndex.add();
+        }
+        // userList grows while we go if edges lead to users outside of the graph
+        for (int i = 0; i < userList.size(); i++) {
+            User u = userList.get(i);
+            for (User v : u.getStudents()) {
+                if (v.graph != this)
+                    register(v);
+            }
+            for (User v : u.getTeachers()) {
+                if (v.graph != this)
+                    register(v);
+            }
+        }
+        // A plain union-find with path halving is much cheaper than relabeling on every union when all
+        // the edges are known up front
+        int numUsers = userList.size();
+        int[] parent = new int[numUsers];
+        for (int i = 0; i < numUsers; i++)
+            parent[i] = i;
+        for (int i = 0; i < numUsers; i++) {
+            User u = userList.get(i);
+            for (User v : u.getStudents())
+                union(parent, i, v.index);
+            for (User v : u.getTeachers())
+                union(parent, i, v.index);
+        }
+        for (int i = 0; i < numUsers; i++)
+            parent[i] = find(parent, i);
+        componentIndex.assign(parent);
+    }
+
+    /**
+     * Merges the sets of a and b in a union-find forest, linking the larger root under the smaller one.
+     */
+    private static void union(int[] parent, int a, int b) {
+        a = find(parent, a);
+        b = find(parent, b);
+        if (a < b)
+            parent[b] = a;
+        else if (b < a)
+            parent[a] = b;
+    }
+
+    /**
+     * Finds the root of x in a union-find forest, halving the path to it along the way.
+     */
+    private static int find(int[] parent, int x) {
+        while (parent[x] != x) {
+            parent[x] = parent[parent[x]];
+            x = parent[x];
+        }
+        return x;
+    }
+
+    /**
+     * Starts timing an operation, if metrics are enabled.
+     * @return the start time to pass into stopTimer, or NOT_TIMED if metrics are disabled
+     */
+    private long startTimer() {
+        return metrics.isEnabled() ? System.nanoTime() : NOT_TIMED;
+    }
+
+    /**
+     * Records the latency of an operation started with startTimer. Does nothing if it wasn't timed.
+     * @param operation the name of the operation
+     * @param start     what startTimer returned
+     */
+    private void stopTimer(String operation, long start) {
+        if (start != NOT_TIMED)
+            metrics.recordOperation(operation, System.nanoTime() - start);
+    }
+
+    /**
+     * Gets the calling thread's VisitedSet, cleared and big enough for every user in the graph.
+     * A thread can only use it for one traversal at a time.
+     * @return an empty VisitedSet
+     */
+    VisitedSet acquireVisitedSet() {
+        return acquireVisitedSet(visitedSets);
+    }
+
+    /**
+     * Gets the calling thread's VisitedSet out of sets, cleared and big enough for every user in the graph.
+     * @param sets the VisitedSets to take it from
+     * @return     an empty VisitedSet
      */
-    private void setUserColors(User.Color color) {
-        for (User u : userMap.values()) {
-            u.color = color;
+    private VisitedSet acquireVisitedSet(ThreadLocal<VisitedSet> sets) {
+        VisitedSet visited = sets.get();
+        if (visited == null) {
+            visited = new VisitedSet(userList.size());
+            sets.set(visited);
         }
+        visited.clear(userList.size());
+        return visited;
     }
 
     /**
-     * Show the graph using graphView.
+     * Writes every user and edge of the graph to a file. See GraphExporter for the formats.
+     * @param file   the file to write to. It is replaced if it exists.
+     * @param format the format to write in
+     * @throws IOException if the file can't be written
+     */
+    public void exportGraph(File file, GraphExporter.Format format) throws IOException {
+        FileChannel channel = openForExport(file);
+        try {
+            GraphExporter.writeGraph(this, format, channel);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes the connected component of a user to a file. See GraphExporter for the formats.
+     * @param userId the userId of the user
+     * @param file   the file to write to. It is replaced if it exists.
+     * @param format the format to write in
+     * @return       true if userId is valid (and the file was written), false otherwise
+     * @throws IOException if the file can't be written
+     */
+    public boolean exportComponent(int userId, File file, GraphExporter.Format format) throws IOException {
+        if (!userMap.containsKey(userId))
+            return false;
+        FileChannel channel = openForExport(file);
+        try {
+            GraphExporter.writeComponent(this, userId, format, channel);
+        } finally {
+            channel.close();
+        }
+        return true;
+    }
+
+    /**
+     * Writes the infected users (with their site versions) and the edges between them to a file. See
+     * GraphExporter for the formats.
+     * @param file   the file to write to. It is replaced if it exists.
+     * @param format the format to write in
+     * @throws IOException if the file can't be written
+     */
+    public void exportInfected(File file, GraphExporter.Format format) throws IOException {
+        FileChannel channel = openForExport(file);
+        try {
+            GraphExporter.writeInfected(this, format, channel);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Opens a file to export to, replacing anything already in it.
+     */
+    private static FileChannel openForExport(File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * @return the view the graph is shown in, made the first time it is needed
+     */
+    private GraphView getGraphView() {
+        if (graphView == null)
+            graphView = new GraphView(this);
+        return graphView;
+    }
+
+    /**
+     * Show the graph using graphView. Graphs too big to lay out user by user are shown as a component overview
+     * instead (see showComponentOverview).
      */
     public void showEntireGraph() {
-        setUserColors(User.Color.WHITE);
+        if (userList.size() > GraphView.MAX_DRILL_DOWN_USERS) {
+            showComponentOverview();
+            return;
+        }
         ArrayList<User> users = new ArrayList<User>(userMap.values());
-        graphView.showGraph(users, "Entire User Graph", infectedUserIds);
+        getGraphView().showGraph(users, "Entire User Graph", infectedUsers);
     }
 
     /**
-     * Show the connected component of the passed-in user.
+     * Show the component overview of the graph: one node per tree, which can be clicked to drill down into it.
+     * Unlike showEntireGraph, this stays responsive for graphs with millions of users.
+     */
+    public void showComponentOverview() {
+        getGraphView().showOverview(getTrees(), "User Graph Components", infectedUsers);
+    }
+
+    /**
+     * Show the connected component of the passed-in user. Components too big to lay out user by user are
+     * drilled down into instead, showing the users nearest the passed-in user (see GraphView.showComponent).
      * @param userId the userId of the user
      * @return       true if userId is valid, false otherwise
      */
     public boolean showUserGraph(int userId) {
         if (userMap.containsKey(userId)) {
-            setUserColors(User.Color.WHITE);
             User user = userMap.get(userId);
+            ensureComponentIndex();
+            int numUsers = componentIndex.getComponentSize(componentIndex.find(user.index));
+            if (numUsers > GraphView.MAX_DRILL_DOWN_USERS) {
+                getGraphView().showComponent(userId, numUsers, infectedUsers);
+                return true;
+            }
             ArrayList<User> users = new ArrayList<User>();
             users.add(user);
-            graphView.showGraph(users, "User #" + userId + " Graph", infectedUserIds);
+            getGraphView().showGraph(users, "User #" + userId + " Graph", infectedUsers);
             return true;
         }
         return false;
     }
 
+    /**
+     * Undoes a rollout read from the journal, for users still on the rollout's site version.
+     */
+    private class RollbackVisitor implements RolloutJournal.Visitor {
+        private int newVersion;
+
+        public void rollout(int rolloutId, int version) {
+            newVersion = version;
+        }
+
+        public void user(int userId, int oldVersion) {
+            User user = userMap.get(userId);
+            if (user != null && user.getSiteVersion() == newVersion) {
+                user.setSiteVersion(oldVersion);
+                if (infectedUsers.getSiteVersion(user.index) == newVersion)
+                    infectedUsers.remove(user.index);
+            }
+        }
+
+        public void rollback(int rolloutId) {
+        }
+    }
+
     public static void main(String[] args) {
         Random random = new Random();
         HashMap<Integer, User> users = new HashMap<Integer, User>();
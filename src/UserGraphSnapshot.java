@@ -0,0 +1,116 @@
+package src;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * An immutable, compressed sparse row (CSR) snapshot of a user graph, held on the heap.
+ * Users are remapped from their (sparse) userIds to dense indices 0..numUsers-1, ordered by userId,
+ * and the student and teacher edges of user i are stored in studentTargets[studentOffsets[i]..studentOffsets[i+1])
+ * and teacherTargets[teacherOffsets[i]..teacherOffsets[i+1]) respectively. Everything is held in primitive
+ * arrays, so traversals over a snapshot never touch User objects.
+ */
+public class UserGraphSnapshot extends GraphSnapshot {
+    private final int[] userIds;
+    private final int[] siteVersions;
+    private final int[] studentOffsets;
+    private final int[] studentTargets;
+    private final int[] teacherOffsets;
+    private final int[] teacherTargets;
+
+    /**
+     * Freezes the passed-in users into a snapshot. Only edges between users in the collection are kept.
+     * @param users the users to freeze
+     */
+    public UserGraphSnapshot(Collection<User> users) {
+        int numUsers = users.size();
+        userIds = new int[numUsers];
+        int i = 0;
+        for (User u : users)
+            userIds[i++] = u.getId();
+        Arrays.sort(userIds);
+
+        User[] byIndex = new User[numUsers];
+        for (User u : users)
+            byIndex[Arrays.binarySearch(userIds, u.getId())] = u;
+
+        siteVersions = new int[numUsers];
+        studentOffsets = new int[numUsers + 1];
+        teacherOffsets = new int[numUsers + 1];
+        for (i = 0; i < numUsers; i++) {
+            siteVersions[i] = byIndex[i].getSiteVersion();
+            studentOffsets[i + 1] = studentOffsets[i] + countKnown(byIndex[i].getStudents());
+            teacherOffsets[i + 1] = teacherOffsets[i] + countKnown(byIndex[i].getTeachers());
+        }
+        studentTargets = new int[studentOffsets[numUsers]];
+        teacherTargets = new int[teacherOffsets[numUsers]];
+        for (i = 0; i < numUsers; i++) {
+            fillTargets(byIndex[i].getStudents(), studentTargets, studentOffsets[i]);
+            fillTargets(byIndex[i].getTeachers(), teacherTargets, teacherOffsets[i]);
+        }
+    }
+
+    public int getNumUsers() {
+        return userIds.length;
+    }
+
+    public int getNumEdges() {
+        return studentTargets.length;
+    }
+
+    public int getNumTeacherEdges() {
+        return teacherTargets.length;
+    }
+
+    public int getUserId(int index) {
+        return userIds[index];
+    }
+
+    public int indexOf(int userId) {
+        int index = Arrays.binarySearch(userIds, userId);
+        return index >= 0 ? index : -1;
+    }
+
+    public int getSiteVersion(int index) {
+        return siteVersions[index];
+    }
+
+    public int getStudentOffset(int index) {
+        return studentOffsets[index];
+    }
+
+    public int getStudentTarget(int edge) {
+        return studentTargets[edge];
+    }
+
+    public int getTeacherOffset(int index) {
+        return teacherOffsets[index];
+    }
+
+    public int getTeacherTarget(int edge) {
+        return teacherTargets[edge];
+    }
+
+    /**
+     * @return the number of users in the collection that are part of this snapshot
+     */
+    private int countKnown(Collection<User> neighbors) {
+        int count = 0;
+        for (User v : neighbors) {
+            if (indexOf(v.getId()) >= 0)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Writes the dense indices of the known users in neighbors into targets, starting at offset.
+     */
+    private void fillTargets(Collection<User> neighbors, int[] targets, int offset) {
+        for (User v : neighbors) {
+            int index = indexOf(v.getId());
+            if (index >= 0)
+                targets[offset++] = index;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package src;
 
 import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
 
 /**
  * Created by mattlim on 11/18/14.
@@ -8,8 +9,15 @@ import java.util.ArrayList;
  */
 public class UserTree implements Comparable<UserTree> {
     private int numUsers;
-    protected ArrayList<User> users = new ArrayList<User>();
+    // Volatile, since trees from a component index are listed lazily and cached plans share them between threads
+    protected volatile ArrayList<User> users = new ArrayList<User>();
     private int sourceId;
+    // Set for trees answered from a ComponentIndex, whose users are only listed when first needed
+    private UserGraph graph;
+    private int leader;
+    // The structure epoch of the graph when the tree was made; the leader only means the same component until
+    // a user or edge is added or removed
+    private long structureEpoch;
 
     /**
      * Construct a UserTree with the passed in userList
@@ -24,6 +32,49 @@ public class UserTree implements Comparable<UserTree> {
             sourceId = -1;
     }
 
+    /**
+     * Construct a UserTree for the component of graph led by leader. The users of the tree are read
+     * from the graph's component index the first time they are needed, which has to be before any user or edge
+     * of the graph is added or removed.
+     * @param graph    the graph the component is in
+     * @param leader   the index of the component's leader
+     * @param numUsers the number of users in the component
+     */
+    UserTree(UserGraph graph, int leader, int numUsers) {
+        this.graph = graph;
+        this.leader = leader;
+        this.numUsers = numUsers;
+        this.structureEpoch = graph.getStructureEpoch();
+        this.users = null;
+        this.sourceId = graph.getComponentHead(leader).getId();
+    }
+
+    /**
+     * @return the index of the leader of the tree's component in the graph's component index, or -1 for trees
+     *         that were not built from a component index
+     */
+    int getLeader() {
+        return graph != null ? leader : -1;
+    }
+
+    /**
+     * @return the users in the tree
+     * @throws ConcurrentModificationException if the tree was made from a component index, its users weren't
+     *         listed yet, and users or edges have been added to or removed from the graph since
+     */
+    public ArrayList<User> getUsers() {
+        ArrayList<User> listed = users;
+        if (listed == null) {
+            if (graph.getStructureEpoch() != structureEpoch)
+                throw new ConcurrentModificationException("The graph changed since the tree of user #" + sourceId
+                        + " was made");
+            // Two threads may both list the users; either list is fine
+            listed = graph.getComponentUsers(leader);
+            users = listed;
+        }
+        return listed;
+    }
+
     /**
      * @return the number of users in the tree
      */
@@ -0,0 +1,58 @@
+package src;
+
+import java.util.Arrays;
+
+/**
+ * Traversal-local record of which users (by dense index) have been visited.
+ * Rather than clearing a boolean per user before every traversal, each traversal gets a new epoch, and a
+ * user counts as visited only if its stamp equals the current epoch. Starting a traversal is therefore
+ * O(1), and since the state lives outside of User, any number of traversals can run at the same time as long
+ * as each one uses its own VisitedSet.
+ */
+public class VisitedSet {
+    private int[] stamps;
+    private int epoch = 0;
+
+    /**
+     * Makes a VisitedSet with room for capacity users.
+     * @param capacity the number of users
+     */
+    public VisitedSet(int capacity) {
+        stamps = new int[capacity];
+    }
+
+    /**
+     * Forgets every visited user, making room for at least capacity users.
+     * @param capacity the number of users
+     */
+    public void clear(int capacity) {
+        if (capacity > stamps.length)
+            stamps = Arrays.copyOf(stamps, Math.max(capacity, stamps.length + (stamps.length >> 1)));
+        epoch++;
+        if (epoch == 0) {
+            // The epoch wrapped around, so old stamps could look current again
+            Arrays.fill(stamps, 0);
+            epoch = 1;
+        }
+    }
+
+    /**
+     * Marks a user as visited.
+     * @param index the dense index of the user
+     * @return      true if the user had not been visited yet, false otherwise
+     */
+    public boolean add(int index) {
+        if (stamps[index] == epoch)
+            return false;
+        stamps[index] = epoch;
+        return true;
+    }
+
+    /**
+     * @param index the dense index of a user
+     * @return      true if the user has been visited, false otherwise
+     */
+    public boolean contains(int index) {
+        return stamps[index] == epoch;
+    }
+}
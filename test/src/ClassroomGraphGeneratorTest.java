@@ -0,0 +1,65 @@
+package src;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ClassroomGraphGeneratorTest {
+
+    private static ClassroomGraphGenerator generator(long seed) {
+        return new ClassroomGraphGenerator(20000, seed).setSchoolSizes(50, 2000, 1.5);
+    }
+
+    /**
+     * @return every edge of the graph as a sorted array of packed (teacher, student) ids
+     */
+    private static long[] edges(UserGraph graph) {
+        int numEdges = 0;
+        for (User teacher : graph.getUserList())
+            numEdges += teacher.getStudents().size();
+        long[] edges = new long[numEdges];
+        int k = 0;
+        for (User teacher : graph.getUserList()) {
+            for (User student : teacher.getStudents())
+                edges[k++] = ((long) teacher.getId() << 32) | (student.getId() & 0xffffffffL);
+        }
+        Arrays.sort(edges);
+        return edges;
+    }
+
+    private static File tempFile() throws IOException {
+        File file = File.createTempFile("classroom", ".txt");
+        file.deleteOnExit();
+        return file;
+    }
+
+    @Test
+    public void sameSeedGivesSameEdges() throws IOException {
+        ForkJoinPool one = new ForkJoinPool(1);
+        ForkJoinPool four = new ForkJoinPool(4);
+        try {
+            long[] edges = edges(generator(42).generate(one));
+            assertArrayEquals(edges, edges(generator(42).generate(four)));
+            assertFalse(Arrays.equals(edges, edges(generator(43).generate(four))));
+
+            File a = tempFile();
+            File b = tempFile();
+            long numEdges = generator(42).writeEdgeFile(a, one);
+            assertEquals(numEdges, generator(42).writeEdgeFile(b, four));
+            assertArrayEquals(Files.readAllBytes(a.toPath()), Files.readAllBytes(b.toPath()));
+            // The file holds the same graph that generate builds
+            assertArrayEquals(edges, edges(EdgeFileLoader.load(a)));
+        } finally {
+            one.shutdown();
+            four.shutdown();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package src;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ComponentIndexTest {
+
+    private static Set<Integer> members(ComponentIndex index, int l) {
+        Set<Integer> members = new HashSet<Integer>();
+        for (int m = index.getHead(l); m != -1; m = index.getNext(m)) {
+            assertEquals(l, index.find(m));
+            members.add(m);
+        }
+        assertEquals(index.getComponentSize(l), members.size());
+        return members;
+    }
+
+    @Test
+    public void unionThenSplit() {
+        ComponentIndex index = new ComponentIndex(2);
+        for (int i = 0; i < 6; i++)
+            assertEquals(i, index.add());
+        assertTrue(index.union(0, 1));
+        assertTrue(index.union(1, 2));
+        assertTrue(index.union(3, 2));
+        assertFalse(index.union(0, 3));
+        assertEquals(3, index.getNumComponents());
+        assertEquals(4, index.getSize(3));
+
+        int moved = index.split(new int[]{0, 2}, 2);
+        assertEquals(4, index.getNumComponents());
+        assertEquals(index.find(0), index.find(2));
+        assertEquals(index.find(1), index.find(3));
+        assertNotEquals(index.find(0), index.find(1));
+        assertEquals(2, members(index, moved).size());
+        assertEquals(2, members(index, index.find(1)).size());
+    }
+
+    @Test
+    public void removeMovesLastUserIntoPlace() {
+        ComponentIndex index = new ComponentIndex();
+        for (int i = 0; i < 5; i++)
+            index.add();
+        index.union(3, 4);
+        index.union(2, 4);
+        index.remove(1);
+        assertEquals(4, index.getNumUsers());
+        assertEquals(2, index.getNumComponents());
+        // User 4 now has index 1 and is still connected to users 2 and 3
+        assertEquals(index.find(1), index.find(2));
+        assertEquals(index.find(1), index.find(3));
+        assertEquals(new HashSet<Integer>(Arrays.asList(1, 2, 3)), members(index, index.find(1)));
+        assertEquals(1, index.getSize(0));
+    }
+
+    @Test
+    public void findsNearestSize() {
+        ComponentIndex index = new ComponentIndex();
+        assertEquals(-1, index.findNearestSize(3));
+        for (int i = 0; i < 10; i++)
+            index.add();
+        // Components of sizes 1, 2, 3 and 4
+        index.union(1, 2);
+        index.union(3, 4);
+        index.union(3, 5);
+        index.union(6, 7);
+        index.union(6, 8);
+        index.union(6, 9);
+        assertEquals(3, index.getComponentSize(index.findNearestSize(3)));
+        assertEquals(4, index.getComponentSize(index.findNearestSize(100)));
+        assertEquals(1, index.getComponentSize(index.findNearestSize(0)));
+        // Break up the size 3 component, leaving sizes 2 and 4 equally close to 3: the larger one wins
+        index.split(new int[]{3}, 1);
+        index.split(new int[]{4}, 1);
+        assertEquals(4, index.getComponentSize(index.findNearestSize(3)));
+        assertEquals(2, index.getComponentSize(index.findNearestSize(2)));
+    }
+}
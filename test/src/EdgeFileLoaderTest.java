@@ -0,0 +1,73 @@
+package src;
+
+import org.junit.Test;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EdgeFileLoaderTest {
+
+    private static File write(String text) throws IOException {
+        File file = File.createTempFile("edges", ".txt");
+        file.deleteOnExit();
+        Writer out = new FileWriter(file);
+        out.write(text);
+        out.close();
+        return file;
+    }
+
+    @Test
+    public void parsesSeparatorsCommentsAndCrlf() throws IOException {
+        File file = write("# teacher, student\r\n"
+                + "1,2\r\n"
+                + "  1\t3 \r\n"
+                + "\r\n"
+                + "1 , 2\n"
+                + "-4 5\n"
+                + "6,1");
+        UserGraph graph = EdgeFileLoader.load(file);
+        assertEquals(6, graph.getUserList().size());
+        assertEquals(2, graph.getUser(1).getStudents().size());
+        assertEquals(1, graph.getUser(1).getTeachers().size());
+        assertEquals(1, graph.getUser(-4).getStudents().size());
+    }
+
+    @Test
+    public void rejectsMalformedLines() throws IOException {
+        for (String line : new String[]{"1,x\n", "1\n", "1,2,3\n", "1,99999999999\n"}) {
+            try {
+                EdgeFileLoader.load(write("1,2\n" + line + "3,4\n"));
+                fail(line.trim() + " was accepted");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("byte 4"));
+            }
+        }
+    }
+
+    @Test
+    public void carriesLinesOverChunkBoundaries() throws IOException {
+        // Well over one 16MB chunk of lines of varying length, so some line straddles every chunk boundary
+        File file = File.createTempFile("edges", ".txt");
+        file.deleteOnExit();
+        Writer out = new BufferedWriter(new FileWriter(file));
+        int numLines = 2000000;
+        for (int i = 0; i < numLines; i++)
+            out.write((i % 1000) + "\t" + (1000 + i) + (i % 3 == 0 ? "\r\n" : "\n"));
+        out.close();
+        assertTrue(file.length() > (1 << 24));
+
+        UserGraph graph = EdgeFileLoader.load(file);
+        assertEquals(1000 + numLines, graph.getUserList().size());
+        for (int t = 0; t < 1000; t++)
+            assertEquals(numLines / 1000, graph.getUser(t).getStudents().size());
+        for (int i = 0; i < numLines; i += 997)
+            assertEquals(i % 1000, graph.getUser(1000 + i).getTeachers().iterator().next().getId());
+    }
+}
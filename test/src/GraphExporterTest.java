@@ -0,0 +1,115 @@
+package src;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GraphExporterTest {
+
+    /**
+     * @return a graph where user 1 teaches users 2 and 3, and user -4 is on its own
+     */
+    private static UserGraph graph() {
+        UserGraph graph = new UserGraph();
+        User teacher = new User(1, 5);
+        graph.addUser(teacher);
+        teacher.addStudent(new User(2));
+        teacher.addStudent(new User(3));
+        graph.addUser(new User(-4, 7));
+        return graph;
+    }
+
+    private interface Export {
+        long write(ByteArrayOutputStream out) throws IOException;
+    }
+
+    private static String export(Export export) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long bytesWritten = export.write(out);
+        assertEquals(out.size(), bytesWritten);
+        return new String(out.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void writesCsv() throws IOException {
+        final UserGraph graph = graph();
+        graph.totalInfection(2, 6);
+        assertEquals("teacher,teacherSiteVersion,student,studentSiteVersion\n"
+                        + "1,6,2,6\n"
+                        + "1,6,3,6\n"
+                        + "-4,7,,\n",
+                export(new Export() {
+                    public long write(ByteArrayOutputStream out) throws IOException {
+                        return GraphExporter.writeGraph(graph, GraphExporter.Format.CSV, Channels.newChannel(out));
+                    }
+                }));
+        assertEquals("teacher,teacherSiteVersion,student,studentSiteVersion\n"
+                        + "-4,7,,\n",
+                export(new Export() {
+                    public long write(ByteArrayOutputStream out) throws IOException {
+                        return GraphExporter.writeComponent(graph, -4, GraphExporter.Format.CSV,
+                                Channels.newChannel(out));
+                    }
+                }));
+    }
+
+    @Test
+    public void writesDot() throws IOException {
+        final UserGraph graph = graph();
+        graph.limitedInfection(3, 6, 1);
+        assertEquals("digraph users {\n"
+                        + "  3 [siteVersion=6, infected=true];\n"
+                        + "}\n",
+                export(new Export() {
+                    public long write(ByteArrayOutputStream out) throws IOException {
+                        return GraphExporter.writeInfected(graph, GraphExporter.Format.DOT, Channels.newChannel(out));
+                    }
+                }));
+        String dot = export(new Export() {
+            public long write(ByteArrayOutputStream out) throws IOException {
+                return GraphExporter.writeGraph(graph, GraphExporter.Format.DOT, Channels.newChannel(out));
+            }
+        });
+        assertTrue(dot, dot.contains("  -4 [siteVersion=7, infected=false];\n"));
+        assertTrue(dot, dot.contains("  1 -> 2;\n"));
+        assertTrue(dot, dot.contains("  1 -> 3;\n"));
+    }
+
+    @Test
+    public void writesGraphMl() throws IOException {
+        final UserGraph graph = graph();
+        String graphMl = export(new Export() {
+            public long write(ByteArrayOutputStream out) throws IOException {
+                return GraphExporter.writeGraph(graph, GraphExporter.Format.GRAPHML, Channels.newChannel(out));
+            }
+        });
+        assertTrue(graphMl, graphMl.contains("    <node id=\"u1\"><data key=\"siteVersion\">5</data>"
+                + "<data key=\"infected\">false</data></node>\n"));
+        assertTrue(graphMl, graphMl.contains("    <edge source=\"u1\" target=\"u3\"/>\n"));
+        assertTrue(graphMl, graphMl.endsWith("</graphml>\n"));
+    }
+
+    @Test
+    public void writesMoreThanOneBuffer() throws IOException {
+        final UserGraph graph = new UserGraph();
+        User teacher = new User(Integer.MIN_VALUE);
+        graph.addUser(teacher);
+        for (int i = 0; i < 20000; i++)
+            teacher.addStudent(new User(Integer.MAX_VALUE - i));
+        String csv = export(new Export() {
+            public long write(ByteArrayOutputStream out) throws IOException {
+                return GraphExporter.writeGraph(graph, GraphExporter.Format.CSV, Channels.newChannel(out));
+            }
+        });
+        String[] lines = csv.split("\n");
+        assertEquals(20001, lines.length);
+        assertEquals("-2147483648,0,2147483647,0", lines[1]);
+        assertEquals("-2147483648,0," + (Integer.MAX_VALUE - 19999) + ",0", lines[20000]);
+    }
+}
@@ -0,0 +1,61 @@
+package src;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class GraphSnapshotFileTest {
+
+    private static File tempFile() throws IOException {
+        File file = File.createTempFile("snapshot", ".kugs");
+        file.deleteOnExit();
+        return file;
+    }
+
+    @Test
+    public void roundTripsOneSidedEdges() throws IOException {
+        UserGraph graph = new UserGraph();
+        User teacher = new User(1, 4);
+        graph.addUser(teacher);
+        teacher.addStudent(new User(2));
+        teacher.addStudent(new User(3));
+        // Leaves user 1 with students but no teachers pointing back from them
+        graph.getUser(2).setTeachers(Collections.<User>emptyList());
+
+        File file = tempFile();
+        GraphSnapshotFile.write(graph.snapshot(), file);
+        MappedGraphSnapshot snapshot = GraphSnapshotFile.open(file);
+        assertEquals(3, snapshot.getNumUsers());
+        assertEquals(2, snapshot.getNumEdges());
+        assertEquals(1, snapshot.getNumTeacherEdges());
+        assertEquals(4, snapshot.getSiteVersion(snapshot.indexOf(1)));
+        assertEquals(0, snapshot.getNumTeachers(snapshot.indexOf(2)));
+        assertEquals(1, snapshot.getNumTeachers(snapshot.indexOf(3)));
+    }
+
+    @Test
+    public void rejectsBadHeaders() throws IOException {
+        // numUsers = -1 and numEdges = 4 satisfy the length check of an empty graph's file
+        int[][] headers = {{-1, 4, 0}, {0, 0, -1}, {0, 1, 0}};
+        for (int[] header : headers) {
+            File file = tempFile();
+            GraphSnapshotFile.write(new UserGraph().snapshot(), file);
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.seek(8);
+            for (int value : header)
+                raf.write(new byte[]{(byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24)});
+            raf.close();
+            try {
+                GraphSnapshotFile.open(file);
+                fail("Header " + header[0] + ", " + header[1] + ", " + header[2] + " was accepted");
+            } catch (IOException expected) {
+            }
+        }
+    }
+}
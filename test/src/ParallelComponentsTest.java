@@ -0,0 +1,71 @@
+package src;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ParallelComponentsTest {
+
+    /**
+     * @return a graph of numUsers users with numEdges random edges, so there are components of all sizes
+     */
+    private static UserGraph randomGraph(int numUsers, int numEdges, long seed) {
+        Random random = new Random(seed);
+        HashMap<Integer, User> users = new HashMap<Integer, User>();
+        User[] byIndex = new User[numUsers];
+        for (int i = 0; i < numUsers; i++) {
+            // Sparse, shuffled ids, so dense indices differ from ids
+            byIndex[i] = new User(i * 7 + random.nextInt(7));
+            users.put(byIndex[i].getId(), byIndex[i]);
+        }
+        for (int e = 0; e < numEdges; e++)
+            byIndex[random.nextInt(numUsers)].addStudent(byIndex[random.nextInt(numUsers)]);
+        return new UserGraph(users);
+    }
+
+    @Test
+    public void parallelLabelsEqualSequentialLabels() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int numEdges : new int[]{0, 50000, 90000, 400000}) {
+                GraphSnapshot snapshot = randomGraph(200000, numEdges, numEdges).snapshot();
+                assertArrayEquals(snapshot.getComponentLabels(), ParallelComponents.label(snapshot, pool));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void unionsTeacherOnlyEdges() {
+        UserGraph graph = randomGraph(20000, 15000, 1);
+        // Links two new users through a teacher entry only, with no student entry pointing back
+        User a = new User(-1);
+        User b = new User(-2);
+        graph.addUser(a);
+        graph.addUser(b);
+        a.setTeachers(Arrays.asList(b));
+
+        GraphSnapshot snapshot = graph.snapshot();
+        int[] labels = ParallelComponents.label(snapshot, ForkJoinPool.commonPool());
+        assertArrayEquals(snapshot.getComponentLabels(), labels);
+        assertEquals(labels[snapshot.indexOf(a.getId())], labels[snapshot.indexOf(b.getId())]);
+
+        // The component index of the graph unions both sides too
+        graph.totalInfection(a.getId(), 9);
+        assertEquals(2, graph.getSiteVersions().count(9));
+        ArrayList<UserTree> trees = graph.getTrees(snapshot, ForkJoinPool.commonPool());
+        int numUsers = 0;
+        for (UserTree tree : trees)
+            numUsers += tree.getNumUsers();
+        assertEquals(20002, numUsers);
+        assertEquals(graph.planLimitedInfectionSmart(Integer.MAX_VALUE).getNumUsers(), trees.get(0).getNumUsers());
+    }
+}
@@ -0,0 +1,31 @@
+package src;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class PlanCacheTest {
+
+    @Test
+    public void olderEpochsMissWithoutClearing() {
+        PlanCache cache = new PlanCache(4);
+        InfectionPlan plan = new InfectionPlan(new ArrayList<UserTree>(), 0, 3);
+        assertNull(cache.get(PlanCache.Strategy.EXACT, 3, 5));
+        cache.put(PlanCache.Strategy.EXACT, 3, 5, plan);
+
+        // A caller that read the epoch before another thread's infection bumped it
+        assertNull(cache.get(PlanCache.Strategy.EXACT, 3, 4));
+        cache.put(PlanCache.Strategy.EXACT, 3, 4, new InfectionPlan(new ArrayList<UserTree>(), 0, 3));
+        assertSame(plan, cache.get(PlanCache.Strategy.EXACT, 3, 5));
+        assertEquals(1, cache.size());
+
+        assertNull(cache.get(PlanCache.Strategy.EXACT, 3, 6));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+    }
+}
@@ -0,0 +1,63 @@
+package src;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RolloutJournalTest {
+
+    /**
+     * @return a journal file with one rollout and one rollback
+     */
+    private static File writeJournal() throws IOException {
+        File file = File.createTempFile("journal", ".rj");
+        file.delete();
+        file.deleteOnExit();
+        RolloutJournal journal = RolloutJournal.open(file);
+        journal.appendRollout(2, new int[]{1, 2, 3}, new int[]{0, 0, 0}, 3);
+        journal.appendRollback(0);
+        journal.close();
+        return file;
+    }
+
+    /**
+     * Overwrites the bodyBytes of the first entry of a journal file.
+     */
+    private static void setBodyBytes(File file, int bodyBytes) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        // Little-endian, right after the 32-byte header and the entry's type and rolloutId
+        raf.seek(32 + 8);
+        raf.write(new byte[]{(byte) bodyBytes, (byte) (bodyBytes >> 8), (byte) (bodyBytes >> 16),
+                (byte) (bodyBytes >> 24)});
+        raf.close();
+    }
+
+    @Test
+    public void rejectsCorruptBodySizes() throws IOException {
+        // -12 would leave the offset where it is, and the others would move it backwards, past the end, or
+        // land the rollback in the middle of the rollout
+        for (int bodyBytes : new int[]{-12, -20, 1 << 20, 4}) {
+            try {
+                File file = writeJournal();
+                setBodyBytes(file, bodyBytes);
+                RolloutJournal.open(file).close();
+                fail("bodyBytes " + bodyBytes + " was accepted");
+            } catch (IOException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void reopensCommittedEntries() throws IOException {
+        RolloutJournal journal = RolloutJournal.open(writeJournal());
+        assertEquals(1, journal.getNumRollouts());
+        assertTrue(journal.isRolledBack(0));
+        journal.close();
+    }
+}
@@ -0,0 +1,114 @@
+package src;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class RolloutServerTest {
+
+    private static String request(RolloutServer server, String method, String path) throws IOException {
+        URL url = new URL("http://127.0.0.1:" + server.getPort() + path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod(method);
+        InputStream in = connection.getInputStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[256];
+        int n;
+        while ((n = in.read(buffer)) > 0)
+            out.write(buffer, 0, n);
+        in.close();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8).trim();
+    }
+
+    private static int status(RolloutServer server, String method, String path) throws IOException {
+        URL url = new URL("http://127.0.0.1:" + server.getPort() + path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod(method);
+        int status = connection.getResponseCode();
+        connection.disconnect();
+        return status;
+    }
+
+    @Test
+    public void readsOwnWritesAcrossPages() throws IOException {
+        // Pairs of a teacher and a student, spread over a few pages of published versions
+        UserGraph graph = new UserGraph();
+        int numUsers = 3 * RolloutServer.PAGE_SIZE;
+        for (int i = 0; i < numUsers; i += 2) {
+            User teacher = new User(i, 1);
+            graph.addUser(teacher);
+            teacher.addStudent(new User(i + 1, 1));
+        }
+        RolloutServer server = new RolloutServer(graph,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        server.start();
+        try {
+            int last = numUsers - 2;
+            assertEquals("{\"infected\":true}", request(server, "POST", "/infect/total?user=" + last + "&version=5"));
+            assertEquals("{\"user\":" + (last + 1) + ",\"version\":5}",
+                    request(server, "GET", "/version?user=" + (last + 1)));
+            assertEquals("{\"user\":0,\"version\":1}", request(server, "GET", "/version?user=0"));
+
+            request(server, "POST", "/infect/total?user=0&version=6");
+            assertEquals("{\"user\":2,\"version\":1}", request(server, "GET", "/version?user=2"));
+            assertEquals("{\"user\":1,\"version\":6}", request(server, "GET", "/version?user=1"));
+            assertEquals("{\"user\":" + last + ",\"version\":5}", request(server, "GET", "/version?user=" + last));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void cachesExactPlans() throws IOException {
+        // Trees of 1, 2 and 3 users
+        UserGraph graph = new UserGraph();
+        int id = 0;
+        for (int size = 1; size <= 3; size++) {
+            User teacher = new User(id++, 1);
+            graph.addUser(teacher);
+            for (int k = 1; k < size; k++)
+                teacher.addStudent(new User(id++, 1));
+        }
+        RolloutServer server = new RolloutServer(graph,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        server.start();
+        try {
+            String plan = "{\"limit\":4,\"strategy\":\"exact\",\"users\":4,\"trees\":2,\"exact\":true}";
+            assertEquals(plan, request(server, "GET", "/plan?limit=4"));
+            assertEquals(plan, request(server, "GET", "/plan?limit=4&strategy=exact"));
+            // Writes don't change the trees, so they don't throw the plan away
+            request(server, "POST", "/infect/total?user=0&version=2");
+            assertEquals(plan, request(server, "GET", "/plan?limit=4"));
+            assertEquals(1, server.getPlanCache().getMisses());
+            assertEquals(2, server.getPlanCache().getHits());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void unknownUsersAreNotFound() throws IOException {
+        UserGraph graph = new UserGraph();
+        graph.addUser(new User(1));
+        RolloutServer server = new RolloutServer(graph,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        server.start();
+        try {
+            assertEquals(404, status(server, "GET", "/version?user=2"));
+            assertEquals(404, status(server, "POST", "/infect/total?user=2&version=3"));
+            assertEquals(404, status(server, "POST", "/infect/limited?user=2&version=3&limit=1"));
+            assertEquals(200, status(server, "POST", "/infect/total?user=1&version=3"));
+        } finally {
+            server.stop(0);
+        }
+    }
+}
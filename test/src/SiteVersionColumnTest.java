@@ -0,0 +1,67 @@
+package src;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class SiteVersionColumnTest {
+
+    @Test
+    public void countsFollowChanges() {
+        SiteVersionColumn column = new SiteVersionColumn(1);
+        for (int i = 0; i < 10; i++)
+            column.add(i % 2);
+        column.set(0, 5);
+        column.remove(1);
+        assertEquals(9, column.size());
+        assertEquals(1, column.count(5));
+        assertEquals(4, column.count(0));
+        assertEquals(4, column.count(1));
+        assertEquals(4, column.moveAll(1, 0));
+        assertEquals(8, column.count(0));
+        assertEquals(0, column.count(1));
+    }
+
+    @Test
+    public void concurrentInfectionsKeepCounts() throws InterruptedException {
+        final int numUsers = 200000;
+        HashMap<Integer, User> users = new HashMap<Integer, User>();
+        for (int i = 0; i < numUsers; i++) {
+            User u = new User(i);
+            // Chains of 100 users
+            if (i % 100 != 0)
+                users.get(i - 1).addStudent(u);
+            users.put(i, u);
+        }
+        final UserGraph graph = new UserGraph(users);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final int version = t + 1;
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int source = 0; source < numUsers; source += 100)
+                        graph.totalInfection(source, version);
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        SiteVersionColumn column = graph.getSiteVersions();
+        HashMap<Integer, Integer> recount = new HashMap<Integer, Integer>();
+        for (int i = 0; i < column.size(); i++) {
+            Integer count = recount.get(column.get(i));
+            recount.put(column.get(i), count == null ? 1 : count + 1);
+        }
+        int total = 0;
+        for (Map.Entry<Integer, Integer> entry : column.getVersionCounts().entrySet()) {
+            assertEquals(recount.get(entry.getKey()), entry.getValue());
+            total += entry.getValue();
+        }
+        assertEquals(numUsers, total);
+    }
+}
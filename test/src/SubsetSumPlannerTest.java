@@ -0,0 +1,60 @@
+package src;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SubsetSumPlannerTest {
+
+    /**
+     * @return one tree of each of the passed-in sizes
+     */
+    private static ArrayList<UserTree> trees(int... sizes) {
+        ArrayList<UserTree> trees = new ArrayList<UserTree>();
+        int nextId = 0;
+        for (int size : sizes) {
+            ArrayList<User> users = new ArrayList<User>();
+            for (int i = 0; i < size; i++)
+                users.add(new User(nextId++));
+            trees.add(new UserTree(users));
+        }
+        return trees;
+    }
+
+    @Test
+    public void findsExactCombination() {
+        InfectionPlan plan = SubsetSumPlanner.plan(trees(5, 7, 11, 3), 15);
+        assertTrue(plan.isExact());
+        assertEquals(15, plan.getNumUsers());
+    }
+
+    @Test
+    public void prefersFewerUsersOnATie() {
+        assertEquals(10, SubsetSumPlanner.plan(trees(10, 14), 12).getNumUsers());
+    }
+
+    @Test
+    public void hugeLimitsTakeEverything() {
+        ArrayList<UserTree> trees = trees(5, 7, 11);
+        for (int limit : new int[] {2000000000, Integer.MAX_VALUE, Integer.MAX_VALUE - 1}) {
+            InfectionPlan plan = SubsetSumPlanner.plan(trees, limit);
+            assertEquals(23, plan.getNumUsers());
+            assertEquals(3, plan.getTrees().size());
+            assertFalse(plan.isExact());
+        }
+    }
+
+    @Test
+    public void hugeLimitOnGraph() {
+        UserGraph graph = new UserGraph();
+        User teacher = new User(1);
+        graph.addUser(teacher);
+        teacher.addStudent(new User(2));
+        graph.addUser(new User(3));
+        assertEquals(3, graph.planLimitedInfection(Integer.MAX_VALUE).getNumUsers());
+    }
+}
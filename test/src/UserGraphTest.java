@@ -0,0 +1,216 @@
+package src;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class UserGraphTest {
+
+    /**
+     * @return a graph of users 0..n-1, where user 0 teaches everyone else
+     */
+    private static UserGraph star(int n) {
+        UserGraph graph = new UserGraph();
+        User teacher = new User(0);
+        graph.addUser(teacher);
+        for (int i = 1; i < n; i++)
+            teacher.addStudent(new User(i));
+        return graph;
+    }
+
+    @Test
+    public void removeWhileComponentsStale() {
+        UserGraph graph = star(6);
+        // Replacing a user's students wholesale leaves the component index stale until it is next needed
+        graph.getUser(0).setStudents(Collections.<User>emptyList());
+        graph.getUser(1).addTeacher(graph.getUser(2));
+        graph.removeUser(3);
+
+        User added = new User(10, 7);
+        graph.addUser(added);
+        assertSame(added, graph.getUserList().get(added.index));
+        assertEquals(7, added.getSiteVersion());
+        added.setSiteVersion(9);
+        assertEquals(9, added.getSiteVersion());
+        assertEquals(1, graph.getSiteVersions().count(9));
+        assertEquals(0, graph.getSiteVersions().count(7));
+
+        // Rebuilding the index keeps everything in place
+        graph.planLimitedInfectionSmart(1);
+        assertEquals(9, added.getSiteVersion());
+        for (int i = 0; i < graph.getUserList().size(); i++)
+            assertEquals(i, graph.getUserList().get(i).index);
+    }
+
+    @Test
+    public void removeKeepsIndicesDense() {
+        UserGraph graph = star(5);
+        graph.removeUser(1);
+        graph.addUser(new User(20, 3));
+        assertEquals(5, graph.getUserList().size());
+        for (int i = 0; i < graph.getUserList().size(); i++)
+            assertEquals(i, graph.getUserList().get(i).index);
+        assertEquals(3, graph.getUser(20).getSiteVersion());
+    }
+
+    @Test
+    public void failedInfectionsAreTimed() {
+        UserGraph graph = star(5);
+        InMemoryGraphMetrics metrics = new InMemoryGraphMetrics();
+        graph.setMetrics(metrics);
+        // Only one component of 5 users, so 3 can't be hit exactly
+        assertFalse(graph.limitedInfectionRecursive(1, 3));
+        assertEquals(1, metrics.getLatencies("limitedInfectionRecursive").getCount());
+
+        UserGraph empty = new UserGraph();
+        empty.setMetrics(metrics);
+        assertFalse(empty.limitedInfectionSmart(1, 3));
+        assertEquals(1, metrics.getLatencies("limitedInfectionSmart").getCount());
+    }
+
+    @Test
+    public void fromSnapshotKeepsEdgesAndVersions() {
+        UserGraph graph = star(50);
+        graph.getUser(3).addStudent(graph.getUser(4));
+        graph.getUser(7).setSiteVersion(2);
+        UserGraph copy = UserGraph.fromSnapshot(graph.snapshot());
+        assertEquals(50, copy.getUserList().size());
+        assertEquals(49, copy.getUser(0).getStudents().size());
+        assertEquals(2, copy.getUser(4).getTeachers().size());
+        assertEquals(2, copy.getUser(7).getSiteVersion());
+        // Duplicate checks still work on the rebuilt adjacency
+        copy.getUser(0).addStudent(copy.getUser(1));
+        assertEquals(49, copy.getUser(0).getStudents().size());
+        assertEquals(1, copy.getTrees(copy.snapshot()).size());
+    }
+
+    @Test
+    public void partialInfectionKeepsClassroomTogether() {
+        // A big component first, so the users below sit far into the graph
+        UserGraph graph = star(300);
+        User a = new User(1000);
+        User b = new User(2000);
+        graph.addUser(a);
+        graph.addUser(b);
+        for (int i = 1; i <= 4; i++) {
+            a.addStudent(new User(1000 + i));
+            b.addStudent(new User(2000 + i));
+        }
+        b.addStudent(graph.getUser(1004));
+
+        ArrayList<User> picked = graph.planPartialInfection(1000, 5).getTrees().get(0).getUsers();
+        HashSet<Integer> ids = new HashSet<Integer>();
+        for (User u : picked)
+            ids.add(u.getId());
+        HashSet<Integer> classA = new HashSet<Integer>();
+        for (int i = 0; i <= 4; i++)
+            classA.add(1000 + i);
+        assertEquals(classA, ids);
+    }
+
+    @Test
+    public void snapshotSkipsRemovedUsers() {
+        UserGraph graph = star(6);
+        GraphSnapshot snapshot = graph.snapshot();
+        graph.removeUser(2);
+        assertTrue(graph.limitedInfection(snapshot, 0, 4, 6));
+        assertEquals(5, graph.getSiteVersions().count(4));
+        assertEquals(5, graph.getTrees(snapshot).get(0).getNumUsers());
+        assertFalse(graph.limitedInfection(snapshot, 2, 4, 6));
+    }
+
+    @Test
+    public void moveSiteVersionIsJournaled() throws IOException {
+        UserGraph graph = star(6);
+        File file = File.createTempFile("journal", ".rj");
+        file.delete();
+        file.deleteOnExit();
+        RolloutJournal journal = RolloutJournal.open(file);
+        graph.setJournal(journal);
+        graph.getUser(5).setSiteVersion(3);
+        assertEquals(5, graph.moveSiteVersion(0, 2));
+        assertEquals(5, graph.getSiteVersions().count(2));
+        assertEquals(5, graph.getInfectedUsers().cardinality(2));
+
+        assertTrue(graph.rollback(graph.getLastRolloutId()));
+        assertEquals(5, graph.getSiteVersions().count(0));
+        assertEquals(0, graph.getInfectedUsers().cardinality());
+        assertEquals(3, graph.getUser(5).getSiteVersion());
+        journal.close();
+    }
+
+    @Test
+    public void emptyRolloutsAreNotJournaled() throws IOException {
+        UserGraph graph = star(6);
+        File file = File.createTempFile("journal", ".rj");
+        file.delete();
+        file.deleteOnExit();
+        RolloutJournal journal = RolloutJournal.open(file);
+        graph.setJournal(journal);
+        long length = journal.getCommittedLength();
+        graph.limitedInfection(0, 2, 0);
+        assertEquals(0, graph.moveSiteVersion(7, 8));
+        assertEquals(-1, graph.getLastRolloutId());
+        assertEquals(length, journal.getCommittedLength());
+        journal.close();
+    }
+
+    @Test
+    public void stalePlansFailToList() {
+        UserGraph graph = star(4);
+        User a = new User(10);
+        graph.addUser(a);
+        a.addStudent(new User(11));
+        InfectionPlan listed = graph.planLimitedInfectionSmart(2);
+        assertEquals(2, listed.getTrees().get(0).getUsers().size());
+        InfectionPlan unlisted = graph.planLimitedInfectionSmart(4);
+
+        graph.removeUser(11);
+        // Users listed before the change stay as they were
+        assertEquals(2, listed.getTrees().get(0).getUsers().size());
+        try {
+            unlisted.getTrees().get(0).getUsers();
+            fail("A stale tree was listed");
+        } catch (ConcurrentModificationException expected) {
+        }
+    }
+
+    @Test
+    public void rolloutsSeededInOneComponentStayDisjoint() {
+        // Components of 5 (users 0..4), 3, 2 and 1 users
+        UserGraph graph = star(5);
+        int id = 100;
+        for (int size = 3; size >= 1; size--) {
+            User teacher = new User(id++);
+            graph.addUser(teacher);
+            for (int k = 1; k < size; k++)
+                teacher.addStudent(new User(id++));
+        }
+        ArrayList<RolloutRequest> requests = new ArrayList<RolloutRequest>();
+        requests.add(new RolloutRequest(1, 5, 0));
+        requests.add(new RolloutRequest(2, 3, 1));
+        requests.add(new RolloutRequest(3, 3));
+        ArrayList<RolloutReport> reports = graph.infectRollouts(requests);
+
+        assertTrue(reports.get(0).isSeedIncluded());
+        // The second seed's component already went to the first rollout
+        assertFalse(reports.get(1).isSeedIncluded());
+        for (int r = 0; r < 3; r++) {
+            assertTrue(reports.get(r).isExact());
+            assertEquals(requests.get(r).getTargetSize(), graph.getSiteVersions().count(r + 1));
+        }
+        assertEquals(11, graph.getInfectedUsers().cardinality());
+        assertEquals(1, graph.getUser(1).getSiteVersion());
+    }
+}